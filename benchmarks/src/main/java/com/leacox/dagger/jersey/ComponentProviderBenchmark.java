@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.jersey;
+
+import com.sun.jersey.api.core.DefaultResourceConfig;
+import com.sun.jersey.core.spi.component.ioc.IoCComponentProvider;
+import dagger.Module;
+import dagger.ObjectGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DaggerComponentProviderFactory#getComponentProvider(Class)} for a constructor injected class, a
+ * field injected class and a class Dagger does not know about.
+ *
+ * @author John Leacox
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComponentProviderBenchmark {
+    private DaggerComponentProviderFactory componentProviderFactory;
+
+    @Setup
+    public void setUp() {
+        Object[] modules = new Object[]{BenchmarkModule.class};
+        componentProviderFactory = new DaggerComponentProviderFactory(new DefaultResourceConfig(),
+                ObjectGraph.create(modules), modules);
+    }
+
+    @Benchmark
+    public IoCComponentProvider constructorInjected() {
+        return componentProviderFactory.getComponentProvider(ConstructorInjected.class);
+    }
+
+    @Benchmark
+    public IoCComponentProvider fieldInjected() {
+        return componentProviderFactory.getComponentProvider(FieldInjected.class);
+    }
+
+    @Benchmark
+    public IoCComponentProvider unknown() {
+        return componentProviderFactory.getComponentProvider(Unknown.class);
+    }
+
+    @Module(
+            injects = {
+                    ConstructorInjected.class,
+                    FieldInjected.class
+            }
+    )
+    static class BenchmarkModule {
+    }
+
+    static class ConstructorInjected {
+        @Inject
+        ConstructorInjected() {
+        }
+    }
+
+    static class FieldInjected {
+        @Inject
+        ConstructorInjected dependency;
+    }
+
+    static class Unknown {
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures fanning a request out to a number of tasks with {@link ServletScopes#continueRequest}, including running
+ * the tasks on a thread pool and waiting for all of them.
+ *
+ * @author John Leacox
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContinueRequestBenchmark {
+    @Param({"1", "8"})
+    public int tasks;
+
+    private final Map<Class<?>, Object> seedMap = Collections.emptyMap();
+    private final Callable<Object> task = new Callable<Object>() {
+        @Override
+        public Object call() {
+            return DaggerFilter.getRequest();
+        }
+    };
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+
+        // Bind the request for the whole trial, the default carrier is a thread local.
+        ((ThreadLocalScopeCarrier<DaggerFilter.Context>) DaggerFilter.localContext)
+                .set(new DaggerFilter.Context(new MockHttpServletRequest(), null));
+    }
+
+    @TearDown
+    public void tearDown() {
+        ((ThreadLocalScopeCarrier<DaggerFilter.Context>) DaggerFilter.localContext).set(null);
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public int fanOut() throws InterruptedException, ExecutionException {
+        List<Future<Object>> futures = Lists.newArrayListWithCapacity(tasks);
+        for (int i = 0; i < tasks; i++) {
+            futures.add(executor.submit(ServletScopes.continueRequest(task, seedMap)));
+        }
+
+        int completed = 0;
+        for (Future<Object> future : futures) {
+            if (future.get() != null) {
+                completed++;
+            }
+        }
+
+        return completed;
+    }
+}
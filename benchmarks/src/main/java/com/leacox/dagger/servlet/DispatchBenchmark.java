@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a dispatch through the {@link DaggerFilter} to one managed filter and one managed servlet, with and without
+ * reusing the dispatch objects. Run with the GC profiler ({@code -prof gc}) and compare {@code gc.alloc.rate.norm},
+ * the bytes allocated per dispatch.
+ *
+ * @author John Leacox
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    @Param({"false", "true"})
+    public boolean reuseDispatchObjects;
+
+    private DaggerFilter daggerFilter;
+    private MockHttpServletRequest request;
+    private FilterChain proceedingChain;
+
+    @Setup
+    public void setUp() throws ServletException {
+        FilterDefinition filterDefinition = new FilterDefinition("/*", Filter.class,
+                UriPatternType.get(UriPatternType.SERVLET, "/*"), ImmutableMap.<String, String>of(),
+                new PassThroughFilter());
+        ServletDefinition servletDefinition = new ServletDefinition("/api/*", HttpServlet.class,
+                UriPatternType.get(UriPatternType.SERVLET, "/api/*"), ImmutableMap.<String, String>of(),
+                new PathInfoServlet());
+
+        PipelineOptions pipelineOptions = new PipelineOptions(false, reuseDispatchObjects);
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(new ServletDefinition[]{servletDefinition}, pipelineOptions), null,
+                new FilterDefinition[]{filterDefinition}, pipelineOptions);
+        pipeline.initPipeline(null);
+
+        daggerFilter = new DaggerFilter(pipeline);
+        request = new MockHttpServletRequest("/context", "/context/api/users/42");
+        proceedingChain = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                throw new AssertionError("The managed servlet should have serviced the request");
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        DaggerFilter.reset();
+    }
+
+    @Benchmark
+    public void dispatch() throws IOException, ServletException {
+        daggerFilter.doFilter(request, null, proceedingChain);
+    }
+
+    static class PassThroughFilter implements Filter {
+        @Override
+        public void init(FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    static class PathInfoServlet extends HttpServlet {
+        @Override
+        public void service(ServletRequest request, ServletResponse response) {
+            ((HttpServletRequest) request).getPathInfo();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ManagedFilterPipeline#dispatch} with a number of filters and servlets. Every other filter matches
+ * the request, and the request is serviced by the last mapped servlet, so the servlet pipeline has to get past every
+ * other pattern first.
+ *
+ * @author John Leacox
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterPipelineBenchmark {
+    @Param({"1", "5", "20"})
+    public int filters;
+
+    @Param({"1", "10", "50"})
+    public int servlets;
+
+    private ManagedFilterPipeline pipeline;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+    private FilterChain proceedingChain;
+
+    @Setup
+    public void setUp() throws ServletException {
+        FilterDefinition[] filterDefinitions = new FilterDefinition[filters];
+        for (int i = 0; i < filters; i++) {
+            String pattern = (i % 2 == 0) ? "/*" : "/other" + i + "/*";
+            filterDefinitions[i] = new FilterDefinition(pattern, Filter.class,
+                    UriPatternType.get(UriPatternType.SERVLET, pattern), ImmutableMap.<String, String>of(),
+                    new PassThroughFilter());
+        }
+
+        ServletDefinition[] servletDefinitions = new ServletDefinition[servlets];
+        for (int i = 0; i < servlets; i++) {
+            String pattern = "/servlet" + i + "/*";
+            servletDefinitions[i] = new ServletDefinition(pattern, HttpServlet.class,
+                    UriPatternType.get(UriPatternType.SERVLET, pattern), ImmutableMap.<String, String>of(),
+                    new OkServlet());
+        }
+
+        pipeline = new ManagedFilterPipeline(null, new ManagedServletPipeline(servletDefinitions), null,
+                filterDefinitions);
+        pipeline.initPipeline(null);
+
+        request = new MockHttpServletRequest("/context", "/context/servlet" + (servlets - 1) + "/items/42");
+        response = new MockHttpServletResponse();
+        proceedingChain = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                throw new AssertionError("A managed servlet should have serviced the request");
+            }
+        };
+    }
+
+    @Benchmark
+    public int dispatch() throws IOException, ServletException {
+        pipeline.dispatch(request, response, proceedingChain);
+        return response.getStatus();
+    }
+
+    static class PassThroughFilter implements Filter {
+        @Override
+        public void init(FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    static class OkServlet extends HttpServlet {
+        @Override
+        public void service(ServletRequest request, ServletResponse response) {
+            ((HttpServletResponse) response).setStatus(HttpServletResponse.SC_OK);
+        }
+    }
+}
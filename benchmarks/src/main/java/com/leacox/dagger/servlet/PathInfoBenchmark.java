@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures computing the servlet path and path info of a managed servlet request, for a typical path, a path with a
+ * few repeated slashes and a pathological path made mostly of slashes. {@code replaceAll} is the regex based
+ * normalization the wrapper used to do, for comparison.
+ *
+ * @author John Leacox
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathInfoBenchmark {
+    @Param({"typical", "repeated", "pathological"})
+    public String path;
+
+    private String requestUri;
+    private MockHttpServletRequest request;
+    private UriPatternMatcher patternMatcher;
+
+    @Setup
+    public void setUp() {
+        if ("typical".equals(path)) {
+            requestUri = "/app/api/users/42/orders";
+        } else if ("repeated".equals(path)) {
+            requestUri = "/app/api//users///42/orders";
+        } else {
+            requestUri = "/app/api" + repeat("/", 256) + "users" + repeat("//x", 64);
+        }
+
+        request = new MockHttpServletRequest();
+        request.setContextPath("/app");
+        request.setServletPath("/api");
+        request.setRequestURI(requestUri);
+        patternMatcher = UriPatternType.get(UriPatternType.SERVLET, "/api/*");
+    }
+
+    @Benchmark
+    public String pathInfo() {
+        return new ServletPathRequestWrapper(request, patternMatcher).getPathInfo();
+    }
+
+    @Benchmark
+    public String collapseSlashes() {
+        return ServletPathRequestWrapper.collapseSlashes(requestUri);
+    }
+
+    @Benchmark
+    public String replaceAll() {
+        return requestUri.replaceAll("[/]{2,}", "/");
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder builder = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(s);
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.leacox.dagger.servlet.scope.ScopedGraphFactory;
+import dagger.Module;
+import dagger.ObjectGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ServletScopes#REQUEST} directly. The cold path is the first scoped lookup of a request, which
+ * creates the scope store, the request's object graph and the scoped object. The warm path finds the scoped object
+ * that was already created for the request.
+ *
+ * @author John Leacox
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestScopeBenchmark {
+    private ObjectGraph unscopedGraph;
+    private ScopedGraphFactory scopedGraphFactory;
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setUp() {
+        unscopedGraph = ObjectGraph.create(BenchmarkAppModule.class);
+        scopedGraphFactory = ScopedGraphFactory.create(BenchmarkRequestModule.class);
+        request = new MockHttpServletRequest();
+
+        // Bind the request for the whole trial, the default carrier is a thread local.
+        ((ThreadLocalScopeCarrier<DaggerFilter.Context>) DaggerFilter.localContext)
+                .set(new DaggerFilter.Context(request, null));
+    }
+
+    @TearDown
+    public void tearDown() {
+        ((ThreadLocalScopeCarrier<DaggerFilter.Context>) DaggerFilter.localContext).set(null);
+    }
+
+    @Benchmark
+    public RequestObject cold() {
+        // Start over as a new request.
+        request.clearAttributes();
+        return ServletScopes.REQUEST.scope(RequestObject.class, unscopedGraph, scopedGraphFactory);
+    }
+
+    @Benchmark
+    public RequestObject warm() {
+        return ServletScopes.REQUEST.scope(RequestObject.class, unscopedGraph, scopedGraphFactory);
+    }
+
+    @Module(
+            injects = {},
+            library = true
+    )
+    static class BenchmarkAppModule {
+    }
+
+    @Module(
+            injects = {
+                    RequestObject.class
+            },
+            addsTo = BenchmarkAppModule.class
+    )
+    static class BenchmarkRequestModule {
+    }
+
+    @Singleton
+    static class RequestObject {
+        @Inject
+        RequestObject() {
+        }
+    }
+}
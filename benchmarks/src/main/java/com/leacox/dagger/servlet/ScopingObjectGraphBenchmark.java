@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import dagger.Module;
+import dagger.ObjectGraph;
+import dagger.ScopingObjectGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code ScopingObjectGraph.get} for a request scoped type, an application singleton and an unscoped type,
+ * all from inside a request. The request scoped object is created up front, so its lookup should not allocate.
+ *
+ * @author John Leacox
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScopingObjectGraphBenchmark {
+    private ObjectGraph objectGraph;
+
+    @Setup
+    public void setUp() {
+        objectGraph = ScopingObjectGraph.create(ObjectGraph.create(BenchmarkAppModule.class))
+                .addScopedModules(RequestScoped.class, BenchmarkRequestModule.class);
+
+        // Bind the request for the whole trial, the default carrier is a thread local.
+        ((ThreadLocalScopeCarrier<DaggerFilter.Context>) DaggerFilter.localContext)
+                .set(new DaggerFilter.Context(new MockHttpServletRequest(), null));
+
+        objectGraph.get(RequestObject.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ((ThreadLocalScopeCarrier<DaggerFilter.Context>) DaggerFilter.localContext).set(null);
+    }
+
+    @Benchmark
+    public RequestObject scoped() {
+        return objectGraph.get(RequestObject.class);
+    }
+
+    @Benchmark
+    public AppSingleton unscopedSingleton() {
+        return objectGraph.get(AppSingleton.class);
+    }
+
+    @Benchmark
+    public Unscoped unscoped() {
+        return objectGraph.get(Unscoped.class);
+    }
+
+    @Module(
+            injects = {
+                    AppSingleton.class,
+                    Unscoped.class
+            }
+    )
+    static class BenchmarkAppModule {
+    }
+
+    @Module(
+            injects = {
+                    RequestObject.class
+            },
+            addsTo = BenchmarkAppModule.class
+    )
+    static class BenchmarkRequestModule {
+    }
+
+    @Singleton
+    static class AppSingleton {
+        @Inject
+        AppSingleton() {
+        }
+    }
+
+    static class Unscoped {
+        @Inject
+        Unscoped() {
+        }
+    }
+
+    @Singleton
+    static class RequestObject {
+        @Inject
+        RequestObject() {
+        }
+    }
+}
@@ -16,7 +16,10 @@
 
 package com.leacox.dagger.jersey;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Sets;
+import com.leacox.dagger.servlet.RequestScoped;
+import com.leacox.dagger.servlet.SessionScoped;
 import com.sun.jersey.api.core.ResourceConfig;
 import com.sun.jersey.core.spi.component.ComponentContext;
 import com.sun.jersey.core.spi.component.ioc.IoCComponentProvider;
@@ -26,17 +29,25 @@ import com.sun.jersey.core.spi.component.ioc.IoCProxiedComponentProvider;
 import dagger.Module;
 import dagger.ObjectGraph;
 import dagger.Provides;
+import dagger.ScopingObjectGraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.inject.Provider;
+import javax.inject.Singleton;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A Dagger-based {@link IoCComponentProviderFactory}.
+ * <p/>
+ * The modules are walked once when the factory is created. The provider chosen for a class is decided once and cached,
+ * so Jersey's lookups for the same class only cost a map lookup and get the same provider instance.
  *
  * @author John Leacox
  */
@@ -46,15 +57,30 @@ class DaggerComponentProviderFactory implements IoCComponentProviderFactory {
     private final ObjectGraph objectGraph;
     private final Set<Class<?>> daggerInjectableClasses = Sets.newHashSet();
     private final Set<Class<?>> daggerProvidedClasses = Sets.newHashSet();
+    private final Set<Class<?>> daggerSingletonProvidedClasses = Sets.newHashSet();
+    private final Set<Class<?>> registeredModules = Sets.newHashSet();
+
+    /**
+     * The provider decided for each class looked up so far, absent if the class is not managed by Dagger.
+     */
+    private final ConcurrentMap<Class<?>, Optional<IoCComponentProvider>> componentProviders =
+            new ConcurrentHashMap<Class<?>, Optional<IoCComponentProvider>>();
+    private final IoCComponentProvider injectedComponentProvider;
 
     public DaggerComponentProviderFactory(ResourceConfig config, ObjectGraph objectGraph, Object[] modules) {
         this.objectGraph = objectGraph;
+        this.injectedComponentProvider = new DaggerInjectedComponentProvider(objectGraph);
 
         for (Object module : modules) {
             Class<?> moduleClass = getModuleClass(module);
             Module annotation = moduleClass.getAnnotation(Module.class);
             register(config, moduleClass, annotation);
         }
+
+        // Decide the injectable classes up front, any other class is decided on its first lookup.
+        for (Class<?> clazz : daggerInjectableClasses) {
+            componentProviders.put(clazz, decideComponentProvider(clazz));
+        }
     }
 
     private Class<?> getModuleClass(Object module) {
@@ -76,13 +102,50 @@ class DaggerComponentProviderFactory implements IoCComponentProviderFactory {
             LOGGER.debug("getComponentProvider({})", clazz.getName());
         }
 
+        Optional<IoCComponentProvider> componentProvider = componentProviders.get(clazz);
+        if (componentProvider == null) {
+            // Racing lookups decide the same provider, keep the first so every lookup shares one instance.
+            componentProvider = decideComponentProvider(clazz);
+            Optional<IoCComponentProvider> existing = componentProviders.putIfAbsent(clazz, componentProvider);
+            if (existing != null) {
+                componentProvider = existing;
+            }
+        }
+
+        return componentProvider.orNull();
+    }
+
+    private Optional<IoCComponentProvider> decideComponentProvider(Class<?> clazz) {
         if (isDaggerConstructorInjected(clazz) || isDaggerProvidedInjectable(clazz)) {
-            return new DaggerInstantiatedComponentProvider(objectGraph, clazz);
+            return Optional.of(newInstantiatedComponentProvider(clazz));
         } else if (isDaggerFieldInjected(clazz)) {
-            return new DaggerInjectedComponentProvider(objectGraph);
+            return Optional.of(injectedComponentProvider);
         } else {
-            return null;
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Creates the provider for a class Dagger instantiates. Request and session scoped classes are resolved straight
+     * from their scope, and singletons are only resolved once. Any other class goes through the object graph.
+     */
+    private IoCComponentProvider newInstantiatedComponentProvider(Class<?> clazz) {
+        if (objectGraph instanceof ScopingObjectGraph) {
+            ScopingObjectGraph scopingObjectGraph = (ScopingObjectGraph) objectGraph;
+            if (scopingObjectGraph.getScopedTypes(RequestScoped.class).contains(clazz)) {
+                return new DaggerInstantiatedComponentProvider(
+                        scopingObjectGraph.getScopedProvider(RequestScoped.class, clazz));
+            } else if (scopingObjectGraph.getScopedTypes(SessionScoped.class).contains(clazz)) {
+                return new DaggerInstantiatedComponentProvider(
+                        scopingObjectGraph.getScopedProvider(SessionScoped.class, clazz));
+            }
+        }
+
+        if (isDaggerSingleton(clazz)) {
+            return new DaggerInstantiatedComponentProvider(new SingletonProvider(objectGraph, clazz));
         }
+
+        return new DaggerInstantiatedComponentProvider(new ObjectGraphProvider(objectGraph, clazz));
     }
 
     private void register(ResourceConfig config, Class<?> moduleClass, Module annotation) {
@@ -90,6 +153,11 @@ class DaggerComponentProviderFactory implements IoCComponentProviderFactory {
             throw new IllegalStateException("All dagger modules must be annotated with @Module");
         }
 
+        // Modules included by more than one module are only walked once.
+        if (!registeredModules.add(moduleClass)) {
+            return;
+        }
+
         for (Class<?> clazz : annotation.injects()) {
             registerClass(config, clazz);
             daggerInjectableClasses.add(clazz);
@@ -113,6 +181,9 @@ class DaggerComponentProviderFactory implements IoCComponentProviderFactory {
             if (annotation != null) {
                 Class<?> returnType = method.getReturnType();
                 daggerProvidedClasses.add(returnType);
+                if (method.isAnnotationPresent(Singleton.class)) {
+                    daggerSingletonProvidedClasses.add(returnType);
+                }
             }
         }
     }
@@ -146,6 +217,11 @@ class DaggerComponentProviderFactory implements IoCComponentProviderFactory {
     }
 
     private boolean isDaggerFieldInjected(Class<?> clazz) {
+        if (clazz == null) {
+            // Interfaces have no superclass.
+            return false;
+        }
+
         if (daggerInjectableClasses.contains(clazz)) {
             for (Field field : clazz.getDeclaredFields()) {
                 if (isInjectable(field)) {
@@ -157,26 +233,82 @@ class DaggerComponentProviderFactory implements IoCComponentProviderFactory {
         return !clazz.equals(Object.class) && isDaggerFieldInjected(clazz.getSuperclass());
     }
 
+    /**
+     * Returns true if Dagger binds the class as a singleton, either from a {@code @Singleton} provides method or, if no
+     * provides method returns it, from the class being annotated {@code @Singleton}.
+     */
+    private boolean isDaggerSingleton(Class<?> clazz) {
+        if (daggerProvidedClasses.contains(clazz)) {
+            return daggerSingletonProvidedClasses.contains(clazz);
+        }
+
+        return clazz.isAnnotationPresent(Singleton.class);
+    }
+
     private static boolean isInjectable(AnnotatedElement element) {
         return element.isAnnotationPresent(javax.inject.Inject.class);
     }
 
     private static class DaggerInstantiatedComponentProvider implements IoCInstantiatedComponentProvider {
+        private final Provider<?> provider;
+
+        public DaggerInstantiatedComponentProvider(Provider<?> provider) {
+            this.provider = provider;
+        }
+
+        @Override
+        public Object getInjectableInstance(Object o) {
+            return o;
+        }
+
+        @Override
+        public Object getInstance() {
+            return provider.get();
+        }
+    }
+
+    /**
+     * Provides a Dagger singleton. The instance is resolved from the object graph on first use and kept, so later
+     * instantiations skip the object graph entirely.
+     * <p/>
+     * Jersey still decides the scope of the component itself, so a singleton resource keeps having its Jersey
+     * parameters injected on each request, as it does when resolved through the object graph.
+     */
+    private static class SingletonProvider implements Provider<Object> {
         private final ObjectGraph objectGraph;
         private final Class<?> clazz;
 
-        public DaggerInstantiatedComponentProvider(ObjectGraph objectGraph, Class<?> clazz) {
+        private volatile Object instance;
+
+        public SingletonProvider(ObjectGraph objectGraph, Class<?> clazz) {
             this.objectGraph = objectGraph;
             this.clazz = clazz;
         }
 
         @Override
-        public Object getInjectableInstance(Object o) {
-            return o;
+        public Object get() {
+            Object result = instance;
+            if (result == null) {
+                // Dagger returns the same singleton to racing lookups, so there is no need to lock.
+                result = objectGraph.get(clazz);
+                instance = result;
+            }
+
+            return result;
+        }
+    }
+
+    private static class ObjectGraphProvider implements Provider<Object> {
+        private final ObjectGraph objectGraph;
+        private final Class<?> clazz;
+
+        public ObjectGraphProvider(ObjectGraph objectGraph, Class<?> clazz) {
+            this.objectGraph = objectGraph;
+            this.clazz = clazz;
         }
 
         @Override
-        public Object getInstance() {
+        public Object get() {
             return objectGraph.get(clazz);
         }
     }
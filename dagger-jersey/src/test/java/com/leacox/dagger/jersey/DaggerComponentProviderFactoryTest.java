@@ -18,6 +18,7 @@ package com.leacox.dagger.jersey;
 
 import com.sun.jersey.api.core.DefaultResourceConfig;
 import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.core.spi.component.ioc.IoCComponentProvider;
 import com.sun.jersey.core.spi.component.ioc.IoCComponentProviderFactory;
 import dagger.Module;
 import dagger.ObjectGraph;
@@ -25,12 +26,16 @@ import dagger.Provides;
 import org.testng.annotations.Test;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import javax.ws.rs.Path;
 import javax.ws.rs.ext.Provider;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
@@ -124,6 +129,40 @@ public class DaggerComponentProviderFactoryTest {
     static class SomeNonModule {
     }
 
+    @Path("/field-injected")
+    static class SomeFieldInjectedResource {
+        @Inject
+        SomeProvider someProvider;
+    }
+
+    static class SomeFieldInjectedSubResource extends SomeFieldInjectedResource {
+    }
+
+    @Path("/singleton")
+    @Singleton
+    static class SomeSingletonResource {
+        @Inject
+        SomeSingletonResource() {
+        }
+    }
+
+    @Path("/singleton-provides")
+    static class SomeSingletonProvidesResource {
+    }
+
+    @Module(injects = {SomeSingletonResource.class, SomeSingletonProvidesResource.class, SomeResource.class})
+    static class SomeSingletonModule {
+        @Provides
+        @Singleton
+        SomeSingletonProvidesResource provideSomeSingletonProvidesResource() {
+            return new SomeSingletonProvidesResource();
+        }
+    }
+
+    @Module(injects = {SomeFieldInjectedResource.class}, includes = SomeModule.class)
+    static class SomeFieldInjectedModule {
+    }
+
     @Test
     public void testModuleAnnotationRequiredOnModules() {
         ObjectGraph objectGraph = ObjectGraph.create(SomeModule.class);
@@ -190,4 +229,39 @@ public class DaggerComponentProviderFactoryTest {
 
         assertTrue(config.getClasses().contains(SomeProvider.class));
     }
+
+    @Test
+    public void testComponentProvidersAreShared() {
+        ResourceConfig config = new DefaultResourceConfig();
+        ObjectGraph objectGraph = ObjectGraph.create(SomeFieldInjectedModule.class);
+        IoCComponentProviderFactory factory = new DaggerComponentProviderFactory(config, objectGraph,
+                new Object[]{SomeFieldInjectedModule.class});
+
+        assertSame(factory.getComponentProvider(SomeResource.class),
+                factory.getComponentProvider(SomeResource.class));
+        assertSame(factory.getComponentProvider(SomeFieldInjectedSubResource.class),
+                factory.getComponentProvider(SomeFieldInjectedResource.class));
+        assertNotSame(factory.getComponentProvider(SomeResource.class),
+                factory.getComponentProvider(SomeProvider.class));
+        assertNull(factory.getComponentProvider(SomeOtherResource.class));
+        assertNull(factory.getComponentProvider(Runnable.class));
+    }
+
+    @Test
+    public void testSingletonsAreResolvedOnce() {
+        ResourceConfig config = new DefaultResourceConfig();
+        ObjectGraph objectGraph = ObjectGraph.create(SomeSingletonModule.class);
+        IoCComponentProviderFactory factory = new DaggerComponentProviderFactory(config, objectGraph,
+                new Object[]{SomeSingletonModule.class});
+
+        for (Class<?> singletonClass : new Class<?>[]{SomeSingletonResource.class,
+                SomeSingletonProvidesResource.class}) {
+            IoCComponentProvider provider = factory.getComponentProvider(singletonClass);
+            assertSame(provider.getInstance(), objectGraph.get(singletonClass));
+            assertSame(provider.getInstance(), provider.getInstance());
+        }
+
+        IoCComponentProvider provider = factory.getComponentProvider(SomeResource.class);
+        assertNotSame(provider.getInstance(), provider.getInstance());
+    }
 }
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet.virtual;
+
+import com.leacox.dagger.servlet.DaggerFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link DaggerFilter} that dispatches each request on its own virtual thread, freeing the container thread while
+ * the request is processed. Register it in web.xml in place of {@code DaggerFilter}, as async supported:
+ * <pre>
+ *  &lt;filter&gt;
+ *    &lt;filter-name&gt;daggerFilter&lt;/filter-name&gt;
+ *    &lt;filter-class&gt;<b>com.leacox.dagger.servlet.virtual.VirtualThreadDaggerFilter</b>&lt;/filter-class&gt;
+ *    &lt;async-supported&gt;true&lt;/async-supported&gt;
+ *  &lt;/filter&gt;
+ * </pre>
+ * Only requests to the path of a managed servlet are moved to a virtual thread. Such a request is put into
+ * asynchronous mode, dispatched through the managed filters and the servlet on the virtual thread, and completed once
+ * they return. Every other request, such as one for a static resource or a web.xml servlet, is dispatched on the
+ * calling thread as usual, so it passes through the managed filters on to the container's filter chain unchanged.
+ * <p/>
+ * The container's filter chain is never called from the virtual thread. If a managed filter lets a request to a
+ * managed servlet fall through anyway, for example by changing its path, the request is handed back to the
+ * container with {@link AsyncContext#dispatch()}, and the rest of the chain runs on a container thread in that async
+ * dispatch, without the request and response wrappers of the managed filters.
+ * <p/>
+ * Requests that cannot be put into asynchronous mode, and other async or error dispatches, are dispatched on the
+ * calling thread as usual. Applications that start asynchronous processing themselves should use {@code DaggerFilter}
+ * instead.
+ * <p/>
+ * There is no need for this filter if the container already runs requests on virtual threads, {@code DaggerFilter}
+ * runs correctly there.
+ *
+ * @author John Leacox
+ */
+public class VirtualThreadDaggerFilter extends DaggerFilter {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreadDaggerFilter.class);
+
+    // Marks a request that fell through the managed pipeline, for the async dispatch that resumes its filter chain.
+    private static final String FALL_THROUGH_KEY = VirtualThreadDaggerFilter.class.getName() + ".FALL_THROUGH";
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Default constructor needed for container managed construction
+    public VirtualThreadDaggerFilter() {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
+            throws IOException, ServletException {
+        if (servletRequest.getDispatcherType() == DispatcherType.ASYNC
+                && servletRequest.getAttribute(FALL_THROUGH_KEY) != null) {
+            servletRequest.removeAttribute(FALL_THROUGH_KEY);
+            continueFilterChain(servletRequest, servletResponse, filterChain);
+            return;
+        }
+
+        if (!servletRequest.isAsyncSupported() || servletRequest.isAsyncStarted()
+                || servletRequest.getDispatcherType() != DispatcherType.REQUEST
+                || !hasManagedServletFor((HttpServletRequest) servletRequest)) {
+            super.doFilter(servletRequest, servletResponse, filterChain);
+            return;
+        }
+
+        AsyncContext asyncContext = servletRequest.startAsync(servletRequest, servletResponse);
+        executor.execute(() -> dispatch(asyncContext, servletRequest, servletResponse));
+    }
+
+    private void dispatch(AsyncContext asyncContext, ServletRequest servletRequest, ServletResponse servletResponse) {
+        // The container's filter chain may only be used until its doFilter call returns, so it is never called here.
+        AtomicBoolean fellThrough = new AtomicBoolean();
+        boolean failed = false;
+        try {
+            super.doFilter(servletRequest, servletResponse, (request, response) -> fellThrough.set(true));
+        } catch (IOException | ServletException | RuntimeException e) {
+            failed = true;
+            logger.error("Failed to dispatch the request on a virtual thread", e);
+            sendError(servletResponse);
+        } finally {
+            if (fellThrough.get() && !failed) {
+                servletRequest.setAttribute(FALL_THROUGH_KEY, Boolean.TRUE);
+                asyncContext.dispatch();
+            } else {
+                asyncContext.complete();
+            }
+        }
+    }
+
+    private static void sendError(ServletResponse servletResponse) {
+        if (servletResponse.isCommitted() || !(servletResponse instanceof HttpServletResponse response)) {
+            return;
+        }
+
+        try {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } catch (IOException e) {
+            logger.warn("Failed to send the error response", e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            super.destroy();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Installs filter pipelines for the tests of {@code dagger-servlet} extensions outside of this package.
+ *
+ * @author John Leacox
+ */
+public final class TestFilterPipelines {
+    private TestFilterPipelines() {}
+
+    /**
+     * Installs a pipeline with a managed servlet for every path, which handles every request with the given chain.
+     */
+    public static void installHandling(FilterChain handler) {
+        install(handler, true);
+    }
+
+    /**
+     * Installs a pipeline with a managed servlet for every path, whose managed filters let every request fall through
+     * to the container's filter chain anyway.
+     */
+    public static void installFallingThrough() {
+        install(null, true);
+    }
+
+    /**
+     * Installs a pipeline without managed servlets, which passes every request on to the container's filter chain.
+     */
+    public static void installWithoutServlets() {
+        install(null, false);
+    }
+
+    private static void install(final FilterChain handler, final boolean hasServlets) {
+        DaggerFilter.pipeline = new FilterPipeline() {
+            @Override
+            public void initPipeline(ServletContext context) {
+            }
+
+            @Override
+            public void destroyPipeline() {
+            }
+
+            @Override
+            public void dispatch(ServletRequest request, ServletResponse response, FilterChain defaultFilterChain)
+                    throws IOException, ServletException {
+                if (handler != null) {
+                    handler.doFilter(request, response);
+                } else {
+                    defaultFilterChain.doFilter(request, response);
+                }
+            }
+
+            @Override
+            public boolean hasServletFor(HttpServletRequest request) {
+                return hasServlets;
+            }
+        };
+    }
+
+    public static void reset() {
+        DaggerFilter.reset();
+    }
+}
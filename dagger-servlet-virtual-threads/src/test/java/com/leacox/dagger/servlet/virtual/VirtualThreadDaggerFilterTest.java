@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet.virtual;
+
+import com.leacox.dagger.servlet.DaggerFilter;
+import com.leacox.dagger.servlet.TestFilterPipelines;
+import org.easymock.Capture;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link VirtualThreadDaggerFilter}.
+ *
+ * @author John Leacox
+ */
+public class VirtualThreadDaggerFilterTest {
+    @AfterMethod
+    public final void tearDown() {
+        TestFilterPipelines.reset();
+    }
+
+    @Test
+    public void testDispatchesManagedPipelineOnVirtualThread() throws Exception {
+        HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+        AsyncContext asyncContext = createMock(AsyncContext.class);
+        CountDownLatch completed = new CountDownLatch(1);
+        AtomicBoolean virtual = new AtomicBoolean();
+        AtomicBoolean containerChainCalled = new AtomicBoolean();
+
+        expect(request.isAsyncSupported()).andReturn(true);
+        expect(request.isAsyncStarted()).andReturn(false);
+        expect(request.getDispatcherType()).andReturn(DispatcherType.REQUEST).anyTimes();
+        expect(request.startAsync(request, response)).andReturn(asyncContext);
+        asyncContext.complete();
+        expectLastCall().andAnswer(() -> {
+            completed.countDown();
+            return null;
+        });
+        replay(request, response, asyncContext);
+
+        TestFilterPipelines.installHandling(
+                (servletRequest, servletResponse) -> virtual.set(Thread.currentThread().isVirtual()));
+        FilterChain filterChain = (servletRequest, servletResponse) -> containerChainCalled.set(true);
+
+        VirtualThreadDaggerFilter filter = new VirtualThreadDaggerFilter();
+        filter.doFilter(request, response, filterChain);
+
+        assertTrue(completed.await(5, TimeUnit.SECONDS));
+        assertTrue(virtual.get());
+        assertFalse(containerChainCalled.get());
+        verify(request, response, asyncContext);
+        filter.destroy();
+    }
+
+    @Test
+    public void testFallThroughResumesContainerChainInAsyncDispatch() throws Exception {
+        HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+        AsyncContext asyncContext = createMock(AsyncContext.class);
+        CountDownLatch dispatched = new CountDownLatch(1);
+        Capture<String> fallThroughKey = new Capture<>();
+        AtomicBoolean containerChainCalled = new AtomicBoolean();
+
+        expect(request.isAsyncSupported()).andReturn(true);
+        expect(request.isAsyncStarted()).andReturn(false);
+        expect(request.getDispatcherType()).andReturn(DispatcherType.REQUEST).times(2);
+        expect(request.startAsync(request, response)).andReturn(asyncContext);
+        request.setAttribute(capture(fallThroughKey), eq(Boolean.TRUE));
+        asyncContext.dispatch();
+        expectLastCall().andAnswer(() -> {
+            dispatched.countDown();
+            return null;
+        });
+        replay(request, response, asyncContext);
+
+        TestFilterPipelines.installFallingThrough();
+        FilterChain filterChain = (servletRequest, servletResponse) -> containerChainCalled.set(true);
+
+        VirtualThreadDaggerFilter filter = new VirtualThreadDaggerFilter();
+        filter.doFilter(request, response, filterChain);
+
+        assertTrue(dispatched.await(5, TimeUnit.SECONDS));
+        assertFalse(containerChainCalled.get());
+        verify(request, response, asyncContext);
+
+        HttpServletRequest asyncRequest = createNiceMock(HttpServletRequest.class);
+        AtomicBoolean virtual = new AtomicBoolean(true);
+        AtomicReference<HttpServletRequest> scopedRequest = new AtomicReference<>();
+
+        expect(asyncRequest.getDispatcherType()).andReturn(DispatcherType.ASYNC).anyTimes();
+        expect(asyncRequest.getAttribute(fallThroughKey.getValue())).andReturn(Boolean.TRUE);
+        asyncRequest.removeAttribute(fallThroughKey.getValue());
+        replay(asyncRequest);
+
+        filter.doFilter(asyncRequest, response, (servletRequest, servletResponse) -> {
+            virtual.set(Thread.currentThread().isVirtual());
+            scopedRequest.set(DaggerFilter.getRequest());
+        });
+
+        assertFalse(virtual.get());
+        assertSame(scopedRequest.get(), asyncRequest);
+        verify(asyncRequest);
+        filter.destroy();
+    }
+
+    @Test
+    public void testDispatchesOnCallingThreadWithoutManagedServlet() throws Exception {
+        // A strict mock, the request must not be put into asynchronous mode.
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+        AtomicBoolean called = new AtomicBoolean();
+        AtomicBoolean virtual = new AtomicBoolean(true);
+
+        expect(request.getDispatcherType()).andReturn(DispatcherType.REQUEST).times(2);
+        expect(request.isAsyncSupported()).andReturn(true);
+        expect(request.isAsyncStarted()).andReturn(false);
+        replay(request, response);
+
+        TestFilterPipelines.installWithoutServlets();
+        FilterChain filterChain = (servletRequest, servletResponse) -> {
+            called.set(true);
+            virtual.set(Thread.currentThread().isVirtual());
+        };
+
+        VirtualThreadDaggerFilter filter = new VirtualThreadDaggerFilter();
+        filter.doFilter(request, response, filterChain);
+
+        assertTrue(called.get());
+        assertFalse(virtual.get());
+        verify(request);
+        filter.destroy();
+    }
+
+    @Test
+    public void testDispatchesOnCallingThreadWithoutAsyncSupport() throws Exception {
+        HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        HttpServletResponse response = createNiceMock(HttpServletResponse.class);
+        AtomicBoolean called = new AtomicBoolean();
+        AtomicBoolean virtual = new AtomicBoolean();
+
+        expect(request.isAsyncSupported()).andReturn(false);
+        replay(request, response);
+
+        FilterChain filterChain = (servletRequest, servletResponse) -> {
+            called.set(true);
+            virtual.set(Thread.currentThread().isVirtual());
+        };
+
+        VirtualThreadDaggerFilter filter = new VirtualThreadDaggerFilter();
+        filter.doFilter(request, response, filterChain);
+
+        assertTrue(called.get());
+        assertFalse(virtual.get());
+        filter.destroy();
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits the number of requests a managed servlet services at once. Requests over the limit are rejected with
+ * {@code 503 Service Unavailable} instead of waiting for a container thread, so a slow backend does not hold up every
+ * thread of the container. Apply a limit to a servlet mapping with
+ * {@link DaggerServletContextListener.ServletDefinitionBuilder#limitConcurrency(ConcurrencyLimit)}.
+ * <p/>
+ * A {@link #fixed(int)} limit never changes, a {@link #vegas(int, int)} limit adapts to the latency of the servlet.
+ * The state of a limit can be read from it at any time, and changes and rejections are reported to the
+ * {@link PipelineMetrics}. Counting is lock-free.
+ * <p/>
+ * Only requests the servlet pipeline dispatches to the servlet are counted. Forwards and includes to the servlet are
+ * part of a request that was already admitted, and are not limited. An asynchronous request is counted until it
+ * completes, times out or fails, rather than until the servlet returns.
+ *
+ * @author John Leacox
+ */
+public abstract class ConcurrencyLimit {
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejections = new AtomicLong();
+
+    ConcurrencyLimit(int initialLimit) {
+        checkArgument(initialLimit > 0, "The concurrency limit must be positive: %s", initialLimit);
+        this.limit = new AtomicInteger(initialLimit);
+    }
+
+    /**
+     * Creates a limit of {@code limit} concurrent requests.
+     */
+    public static ConcurrencyLimit fixed(int limit) {
+        return new FixedConcurrencyLimit(limit);
+    }
+
+    /**
+     * Creates a limit that starts at {@code initialLimit} concurrent requests, and adapts between 1 and
+     * {@code maxLimit} the way TCP Vegas adapts its congestion window. The lowest latency seen is taken as the
+     * latency without queueing, and the limit is raised while requests are not queueing, and lowered once the
+     * latency shows more requests queueing than a few.
+     * <p/>
+     * The lowest latency is measured again every 1000 requests, so the
+     * limit follows a servlet that became slower for good.
+     */
+    public static ConcurrencyLimit vegas(int initialLimit, int maxLimit) {
+        return new VegasConcurrencyLimit(initialLimit, maxLimit);
+    }
+
+    /**
+     * @return the number of requests that are currently allowed at once.
+     */
+    public int getLimit() {
+        return limit.get();
+    }
+
+    /**
+     * @return the number of requests being serviced.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the number of requests rejected so far.
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    /**
+     * Counts a request if it is under the limit.
+     *
+     * @return false if the request is over the limit and must be rejected
+     */
+    boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit.get()) {
+                rejections.incrementAndGet();
+                return false;
+            }
+
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Completes a request counted by {@link #tryAcquire()}, and adapts the limit to its latency.
+     *
+     * @return true if the limit was changed
+     */
+    boolean release(long durationNanos) {
+        int inFlightBefore = inFlight.getAndDecrement();
+
+        int current = limit.get();
+        int next = nextLimit(current, inFlightBefore, durationNanos);
+        // A concurrent request that adapted the limit first wins, and this sample is dropped.
+        return next != current && limit.compareAndSet(current, next);
+    }
+
+    /**
+     * Gets the limit after a request completed in {@code durationNanos}, while {@code inFlight} requests, including
+     * itself, were being serviced.
+     */
+    abstract int nextLimit(int limit, int inFlight, long durationNanos);
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{limit=" + getLimit() + ", inFlight=" + getInFlight() + ", rejections="
+                + getRejections() + "}";
+    }
+
+    private static final class FixedConcurrencyLimit extends ConcurrencyLimit {
+        FixedConcurrencyLimit(int limit) {
+            super(limit);
+        }
+
+        @Override
+        int nextLimit(int limit, int inFlight, long durationNanos) {
+            return limit;
+        }
+    }
+
+    static final class VegasConcurrencyLimit extends ConcurrencyLimit {
+        static final int PROBE_INTERVAL = 1000;
+
+        private final int maxLimit;
+        // The lowest latency seen since the last probe, taken as the latency without queueing
+        private final AtomicLong noLoadNanos = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicInteger samples = new AtomicInteger();
+
+        VegasConcurrencyLimit(int initialLimit, int maxLimit) {
+            super(initialLimit);
+            checkArgument(maxLimit >= initialLimit, "The maximum limit %s is lower than the initial limit %s",
+                    maxLimit, initialLimit);
+            this.maxLimit = maxLimit;
+        }
+
+        @Override
+        int nextLimit(int limit, int inFlight, long durationNanos) {
+            if (durationNanos <= 0) {
+                return limit;
+            }
+
+            if (samples.incrementAndGet() % PROBE_INTERVAL == 0) {
+                noLoadNanos.set(durationNanos);
+                return limit;
+            }
+
+            long noLoad = lowest(durationNanos);
+
+            // The number of requests queueing, if the latency without queueing is the lowest latency seen.
+            int queueSize = (int) Math.ceil(limit * (1 - (double) noLoad / durationNanos));
+
+            int log = Math.max(1, (int) Math.log10(limit));
+            int alpha = 3 * log;
+            int beta = 6 * log;
+
+            int next;
+            if (queueSize <= log) {
+                next = limit + beta;
+            } else if (queueSize < alpha) {
+                next = limit + log;
+            } else if (queueSize > beta) {
+                next = limit - log;
+            } else {
+                return limit;
+            }
+
+            // Only raise the limit while it is being used, or it grows without bounds while the servlet is idle.
+            if (next > limit && inFlight * 2 < limit) {
+                return limit;
+            }
+
+            return Math.max(1, Math.min(maxLimit, next));
+        }
+
+        private long lowest(long durationNanos) {
+            while (true) {
+                long current = noLoadNanos.get();
+                if (durationNanos >= current) {
+                    return current;
+                }
+
+                if (noLoadNanos.compareAndSet(current, durationNanos)) {
+                    return durationNanos;
+                }
+            }
+        }
+    }
+}
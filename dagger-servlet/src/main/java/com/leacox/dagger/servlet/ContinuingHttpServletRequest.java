@@ -16,7 +16,6 @@
 
 package com.leacox.dagger.servlet;
 
-import com.google.common.collect.Maps;
 import com.leacox.dagger.servlet.scope.OutOfScopeException;
 
 import javax.servlet.ServletInputStream;
@@ -25,7 +24,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A wrapper for requests that makes requests immutable, taking a snapshot
@@ -35,8 +35,9 @@ import java.util.Map;
  */
 class ContinuingHttpServletRequest extends HttpServletRequestWrapper {
 
-    // We clear out the attributes as they are mutable and not thread-safe.
-    private final Map<String, Object> attributes = Maps.newHashMap();
+    // We clear out the attributes as they are mutable and not thread-safe. A continued request may be shared by
+    // several threads, so its own attributes must be thread-safe.
+    private final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
 
     public ContinuingHttpServletRequest(HttpServletRequest request) {
         super(request);
@@ -59,7 +60,12 @@ class ContinuingHttpServletRequest extends HttpServletRequestWrapper {
 
     @Override
     public void setAttribute(String name, Object o) {
-        attributes.put(name, o);
+        // Setting null is the same as removing the attribute.
+        if (o == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, o);
+        }
     }
 
     @Override
@@ -33,6 +33,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
 
 /**
  * <p/>
@@ -43,6 +44,7 @@ import java.lang.ref.WeakReference;
  *  &lt;filter&gt;
  *    &lt;filter-name&gt;daggerFilter&lt;/filter-name&gt;
  *    &lt;filter-class&gt;<b>com.leacox.dagger.servlet.DaggerFilter</b>&lt;/filter-class&gt;
+ *    &lt;async-supported&gt;true&lt;/async-supported&gt;
  *  &lt;/filter&gt;
  *
  *  &lt;filter-mapping&gt;
@@ -54,6 +56,9 @@ import java.lang.ref.WeakReference;
  * This filter must appear before every filter that makes use of Dagger injection or servlet
  * scopes functionality. Typically, you will only register this filter in web.xml and register
  * any other filters (and servlets) using a {@link DaggerServletContextListener}.
+ * <p/>
+ * Register the filter as async supported to use asynchronous requests. Use {@link ScopedAsyncContext} to keep the
+ * request scope available to the asynchronous work of a request.
  *
  * @author crazybob@google.com (Bob Lee)
  * @author dhanji@gmail.com (Dhanji R. Prasanna)
@@ -61,7 +66,7 @@ import java.lang.ref.WeakReference;
  */
 @Singleton
 public class DaggerFilter implements Filter {
-    static ThreadLocal<Context> localContext = new ThreadLocal<Context>();
+    static final ScopeCarrier<Context> localContext = ScopeCarriers.create();
     static volatile FilterPipeline pipeline = new DefaultFilterPipeline();
 
     private static volatile WeakReference<ServletContext> servletContext = new WeakReference<ServletContext>(null);
@@ -109,23 +114,77 @@ public class DaggerFilter implements Filter {
     public void doFilter(final ServletRequest servletRequest, final ServletResponse servletResponse,
                          final FilterChain filterChain)
             throws IOException, ServletException {
-        Context previous = localContext.get();
-
         // Prefer the injected pipeline, but fall back on the static one for web.xml users.
         final FilterPipeline filterPipeline = getPipeline();
 
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+
+        DispatchArena arena = reusesDispatchObjects(filterPipeline) ? DispatchArena.acquire() : null;
+        Context context;
+        Dispatch dispatch;
+        if (arena != null) {
+            context = arena.context(request, response);
+            dispatch = arena.dispatch(filterPipeline, servletRequest, servletResponse, filterChain);
+        } else {
+            context = new Context(request, response);
+            dispatch = new Dispatch().set(filterPipeline, servletRequest, servletResponse, filterChain);
+        }
+
         try {
-            localContext.set(new Context((HttpServletRequest) servletRequest,
-                    (HttpServletResponse) servletResponse));
+            callInContext(context, dispatch);
+        } finally {
+            if (arena != null) {
+                arena.release(request);
+            }
+        }
+    }
 
-            //dispatch across the servlet pipeline, ensuring web.xml's filterchain is honored
-            filterPipeline.dispatch(servletRequest, servletResponse, filterChain);
+    /**
+     * Returns whether a managed servlet is mapped to the path of the given request. For subclasses that decide how to
+     * dispatch a request before dispatching it.
+     */
+    protected final boolean hasManagedServletFor(HttpServletRequest request) {
+        return getPipeline().hasServletFor(request);
+    }
 
-        } finally {
-            localContext.set(previous);
+    /**
+     * Passes the request on to the rest of the container's filter chain in the scope of the request, without
+     * dispatching it through the managed filters and servlets. For subclasses that resume a request in a later
+     * dispatch after it fell through the managed pipeline.
+     */
+    protected final void continueFilterChain(final ServletRequest servletRequest,
+                                             final ServletResponse servletResponse, final FilterChain filterChain)
+            throws IOException, ServletException {
+        Context context = new Context((HttpServletRequest) servletRequest, (HttpServletResponse) servletResponse);
+        callInContext(context, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                filterChain.doFilter(servletRequest, servletResponse);
+                return null;
+            }
+        });
+    }
+
+    private static void callInContext(Context context, Callable<Void> callable) throws IOException, ServletException {
+        try {
+            localContext.call(context, callable);
+        } catch (IOException e) {
+            throw e;
+        } catch (ServletException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServletException(e);
         }
     }
 
+    private static boolean reusesDispatchObjects(FilterPipeline filterPipeline) {
+        return filterPipeline instanceof ManagedFilterPipeline
+                && ((ManagedFilterPipeline) filterPipeline).reusesDispatchObjects();
+    }
+
     // TODO: When ScopingObjectGraph doesn't need to be in the dagger package anymore these methods can become package private
 
     /**
@@ -211,14 +270,22 @@ public class DaggerFilter implements Filter {
 
     static class Context {
 
-        final HttpServletRequest request;
-        final HttpServletResponse response;
+        HttpServletRequest request;
+        HttpServletResponse response;
 
         Context(HttpServletRequest request, HttpServletResponse response) {
             this.request = request;
             this.response = response;
         }
 
+        /**
+         * Points a reused context at another request, see {@link DispatchArena}.
+         */
+        void set(HttpServletRequest request, HttpServletResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+
         HttpServletRequest getRequest() {
             return request;
         }
@@ -227,4 +294,29 @@ public class DaggerFilter implements Filter {
             return response;
         }
     }
+
+    /**
+     * Dispatches a request across the servlet pipeline, ensuring web.xml's filterchain is honored.
+     */
+    static final class Dispatch implements Callable<Void> {
+        private FilterPipeline pipeline;
+        private ServletRequest request;
+        private ServletResponse response;
+        private FilterChain filterChain;
+
+        Dispatch set(FilterPipeline pipeline, ServletRequest request, ServletResponse response,
+                     FilterChain filterChain) {
+            this.pipeline = pipeline;
+            this.request = request;
+            this.response = response;
+            this.filterChain = filterChain;
+            return this;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            pipeline.dispatch(request, response, filterChain);
+            return null;
+        }
+    }
 }
@@ -40,16 +40,22 @@ import com.google.common.collect.Sets;
 import dagger.ObjectGraph;
 import dagger.ScopingObjectGraph;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
@@ -62,6 +68,7 @@ import static com.google.common.base.Preconditions.checkState;
  * <ul>
  * <li>Application Wide - Put application wide modules in {@link #getBaseModules()}</li>
  * <li>Request Scoped - Put request scoped modules in {@link #getRequestScopedModules()}</li>
+ * <li>Session Scoped - Put session scoped modules in {@link #getSessionScopedModules()}</li>
  * </ul>
  * <p/>
  * The following modules are included by dagger-servlet to provide some standard bindings:
@@ -102,8 +109,10 @@ public abstract class DaggerServletContextListener implements ServletContextList
 
     private List<ServletDefinition> servletDefinitions = null;
 
+    private WarmUpReport warmUpReport = WarmUpReport.EMPTY;
+
     @Override
-    public void contextInitialized(ServletContextEvent servletContextEvent) {
+    public synchronized void contextInitialized(ServletContextEvent servletContextEvent) {
         checkState(filterDefinitions == null, "Re-entry is not allowed.");
         checkState(servletDefinitions == null, "Re-entry is not allowed.");
         filterDefinitions = Lists.newArrayList();
@@ -112,14 +121,19 @@ public abstract class DaggerServletContextListener implements ServletContextList
             ServletContext servletContext = servletContextEvent.getServletContext();
 
             ObjectGraph unscopedGraph = ObjectGraph.create(getBaseModules());
-            ObjectGraph scopingObjectGraph = ScopingObjectGraph.create(unscopedGraph)
+            ScopingObjectGraph scopingObjectGraph = ScopingObjectGraph.create(unscopedGraph)
                     .addScopedModules(RequestScoped.class, getRequestScopedModules());
+            Object[] sessionScopedModules = getSessionScopedModules();
+            if (sessionScopedModules.length > 0) {
+                scopingObjectGraph = scopingObjectGraph.addScopedModules(SessionScoped.class, sessionScopedModules);
+            }
 
             scopingObjectGraph.get(ServletContextProvider.class).set(servletContext);
             scopingObjectGraph.get(InternalServletModule.ObjectGraphProvider.class).set(scopingObjectGraph);
             Iterable<Object> fullModules = Iterables.concat(
                     Arrays.asList(getBaseModules()),
-                    Arrays.asList(getRequestScopedModules()));
+                    Arrays.asList(getRequestScopedModules()),
+                    Arrays.asList(sessionScopedModules));
             scopingObjectGraph.get(InternalServletModule.FullModulesProvider.class)
                     .set(Iterables.toArray(fullModules, Object.class));
 
@@ -128,20 +142,21 @@ public abstract class DaggerServletContextListener implements ServletContextList
             scopingObjectGraph.get(InternalServletModule.FilterDefinitionsProvider.class)
                     .set(filterDefinitions.toArray(new FilterDefinition[filterDefinitions.size()]));
 
-            // Ensure that servlets are not bound twice to the same pattern.
-            Set<String> servletUris = Sets.newHashSet();
-            for (ServletDefinition servletDefinition : servletDefinitions) {
-                if (servletUris.contains(servletDefinition.getPattern())) {
-                    // TODO: Consider finding all servlet configuration errors and throw one exception with all of them.
-                    throw new IllegalStateException("More than one servlet was mapped to the same URI pattern: "
-                            + servletDefinition.getPattern());
-                } else {
-                    servletUris.add(servletDefinition.getPattern());
-                }
-            }
+            checkServletPatterns(servletDefinitions);
             scopingObjectGraph.get(InternalServletModule.ServletDefinitionsProvider.class)
                     .set(servletDefinitions.toArray(new ServletDefinition[servletDefinitions.size()]));
 
+            // Warm up before the metrics are set, so the warm up lookups are not reported as request activity.
+            if (warmUpRequestScope()) {
+                warmUpReport = RequestScopeWarmUp.warmUp(scopingObjectGraph, getWarmUpSeeds());
+            }
+
+            PipelineMetrics pipelineMetrics = getPipelineMetrics();
+            scopingObjectGraph.get(InternalServletModule.PipelineOptionsProvider.class)
+                    .set(new PipelineOptions(combineRegexPatterns(), reuseDispatchObjects(), pipelineMetrics,
+                            initializePipelineInParallel(), allowServletReconfiguration()));
+            ServletScopes.setMetrics(pipelineMetrics);
+
             // Make sure the dagger filter is injected
             DaggerFilter daggerFilter = scopingObjectGraph.get(DaggerFilter.class);
             scopingObjectGraph.inject(daggerFilter);
@@ -155,10 +170,63 @@ public abstract class DaggerServletContextListener implements ServletContextList
         }
     }
 
+    /**
+     * Ensures that servlets are not bound twice to the same pattern.
+     */
+    private static void checkServletPatterns(List<ServletDefinition> servletDefinitions) {
+        Set<String> servletUris = Sets.newHashSet();
+        for (ServletDefinition servletDefinition : servletDefinitions) {
+            if (servletUris.contains(servletDefinition.getPattern())) {
+                // TODO: Consider finding all servlet configuration errors and throw one exception with all of them.
+                throw new IllegalStateException("More than one servlet was mapped to the same URI pattern: "
+                        + servletDefinition.getPattern());
+            } else {
+                servletUris.add(servletDefinition.getPattern());
+            }
+        }
+    }
+
+    /**
+     * Replaces the filters and servlets in service with the ones registered by calling {@link #configureServlets()}
+     * again, for example after the configuration it reads has changed. This must be enabled with
+     * {@link #allowServletReconfiguration()}. Dagger Servlet initializes the new filters and servlets, then switches
+     * new requests over to them at once. Requests in progress complete with the previous filters and servlets, which
+     * are destroyed once those requests have completed. Filter and servlet instances used both before and after are
+     * neither initialized nor destroyed again.
+     * <p/>
+     * This method waits up to the given timeout for the requests in progress, so it must be called from a background
+     * thread rather than from a request. If they are still in progress after the timeout, for example long polling
+     * requests, the last of them to complete destroys the previous filters and servlets instead. If the new filters
+     * or servlets fail to initialize, the ones they initialized are destroyed, the previous ones stay in service and
+     * the exception is thrown.
+     *
+     * @return true if the previous filters and servlets were destroyed before returning, false if they are destroyed
+     * once the requests still using them complete
+     * @throws IllegalStateException if the context listener has not been initialized, reconfiguration is not
+     *                               enabled, or this is called while dispatching a request
+     */
+    protected final synchronized boolean reconfigureServlets(long timeout, TimeUnit unit) throws ServletException {
+        checkState(objectGraph != null, "The context listener has not been initialized.");
+        filterDefinitions = Lists.newArrayList();
+        servletDefinitions = Lists.newArrayList();
+        try {
+            configureServlets();
+            checkServletPatterns(servletDefinitions);
+
+            return objectGraph.get(ManagedFilterPipeline.class).replace(
+                    filterDefinitions.toArray(new FilterDefinition[filterDefinitions.size()]),
+                    servletDefinitions.toArray(new ServletDefinition[servletDefinitions.size()]), timeout, unit);
+        } finally {
+            filterDefinitions = null;
+            servletDefinitions = null;
+        }
+    }
+
     @Override
     public void contextDestroyed(ServletContextEvent servletContextEvent) {
         ServletContext servletContext = servletContextEvent.getServletContext();
         servletContext.removeAttribute(OBJECT_GRAPH_NAME);
+        ServletScopes.setMetrics(PipelineMetrics.NONE);
     }
 
 
@@ -172,6 +240,14 @@ public abstract class DaggerServletContextListener implements ServletContextList
         return objectGraph;
     }
 
+    /**
+     * Gets the timing of the request scope warm up, see {@link #warmUpRequestScope()}. The report is empty if the
+     * warm up is not enabled or the context listener has not been initialized.
+     */
+    protected WarmUpReport getWarmUpReport() {
+        return warmUpReport;
+    }
+
     /**
      * Override this method to return an array of your application level Dagger modules. {@link ServletModule} should
      * be included.
@@ -184,6 +260,90 @@ public abstract class DaggerServletContextListener implements ServletContextList
      */
     protected abstract Object[] getRequestScopedModules();
 
+    /**
+     * Override this method to return an array of your session scoped Dagger modules. Session scoped objects are kept
+     * for the lifetime of the HTTP session, and are created in a graph shared by the session.
+     */
+    protected Object[] getSessionScopedModules() {
+        return new Object[0];
+    }
+
+    /**
+     * Override this method to return true to combine the {@link #serveRegex(String, String...)} patterns into a single
+     * regular expression. A request URI is then tested against all of them at once, instead of against each pattern in
+     * turn. The first matching pattern still wins.
+     * <p/>
+     * Patterns that use back references, named groups, {@code \Q} quoting or comments are still tested on their own.
+     */
+    protected boolean combineRegexPatterns() {
+        return false;
+    }
+
+    /**
+     * Override this method to return true to keep the objects the {@link DaggerFilter} allocates for each request,
+     * such as the filter chain and the request wrappers, per thread and reuse them for the next request on the same
+     * thread. This cuts the allocation of each dispatch on containers with a pool of request threads.
+     * <p/>
+     * Filters and servlets must not keep a reference to the request or the filter chain after the request ends.
+     * Requests that go asynchronous are not reused.
+     */
+    protected boolean reuseDispatchObjects() {
+        return false;
+    }
+
+    /**
+     * Override this method to return true to initialize the managed filters and servlets in parallel when the
+     * {@link DaggerFilter} is initialized, instead of one after another. Each distinct filter and servlet instance is
+     * still initialized only once. This shortens startup when some filters or servlets take long to initialize.
+     * <p/>
+     * Filters and servlets must not depend on being initialized in any order.
+     */
+    protected boolean initializePipelineInParallel() {
+        return false;
+    }
+
+    /**
+     * Override this method to return true to allow replacing the filters and servlets while the application is
+     * running, with {@link #reconfigureServlets(long, TimeUnit)}. Each request is then counted, so that the previous
+     * filters and servlets can be destroyed once the requests using them have completed. Requests are not counted by
+     * default.
+     */
+    protected boolean allowServletReconfiguration() {
+        return false;
+    }
+
+    /**
+     * Override this method to return true to resolve every type in the {@code injects} of the request scoped modules
+     * once when the context is initialized, inside a throwaway {@link ServletScopes#scopeRequest} scope. Loading the
+     * classes and the generated Dagger adapters of the request scoped types then happens before the application
+     * starts serving requests, instead of during the first requests. Each request still links the bindings of its own
+     * scoped graph. The time taken by each type is available from {@link #getWarmUpReport()}.
+     * <p/>
+     * The request, response and session are {@code null} during the warm up, more seeds can be given with
+     * {@link #getWarmUpSeeds()}. Types that cannot be created without an HTTP request are listed in the report's
+     * failures and do not fail the startup. Request scoped types must not have side effects when created.
+     */
+    protected boolean warmUpRequestScope() {
+        return false;
+    }
+
+    /**
+     * Override this method to seed the request scope of the warm up, see {@link #warmUpRequestScope()}. Seeded types
+     * are not resolved themselves, their seeded value is injected wherever they are needed.
+     */
+    protected Map<Class<?>, Object> getWarmUpSeeds() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Override this method to return a {@link PipelineMetrics} to report the latency of the managed filters and
+     * servlets and the creation of scoped objects to, such as a {@link HistogramPipelineMetrics}. The returned
+     * metrics can be injected from {@link ServletModule}. By default nothing is measured.
+     */
+    protected PipelineMetrics getPipelineMetrics() {
+        return PipelineMetrics.NONE;
+    }
+
     /**
      * <h3>Servlet Mapping EDSL</h3>
      * <p/>
@@ -297,6 +457,40 @@ public abstract class DaggerServletContextListener implements ServletContextList
      * </ul>
      * <p/>
      * <p/>
+     * <h4>Path Templates</h4>
+     * Servlets can be mapped to path templates, whose variables are injected as a {@link PathParams} map:
+     * <pre>
+     * <b>serveTemplate("/users/{id}/orders/{orderId}").with(MyOrderServlet.class)</b>
+     * </pre>
+     * <p/>
+     * A variable matches a non-empty part of a single path segment, so this maps {@code /users/42/orders/7} but not
+     * {@code /users/42/orders}.
+     * <p/>
+     * <p/>
+     * <h4>Dispatcher Types</h4>
+     * Filters apply to every request that reaches the {@link DaggerFilter}, including forwards, includes and error
+     * dispatches if the {@code DaggerFilter} is mapped to them in the web.xml. A filter can be limited to some
+     * dispatcher types, the same as with the {@code <dispatcher>} element of a web.xml filter mapping:
+     * <pre>
+     * <b>filter("/*").forDispatcherTypes(DispatcherType.REQUEST).through(MyAuthFilter.class)</b>
+     * </pre>
+     * <p/>
+     * Once a filter is limited to some dispatcher types, includes are matched against the path of the included
+     * resource, the same as a web.xml filter mapping, instead of against the URI of the including request.
+     * <p/>
+     * <p/>
+     * <h4>Concurrency Limits</h4>
+     * A servlet can be limited to a number of requests at once, so that a slow backend does not take up every
+     * container thread. Requests over the limit are rejected with {@code 503 Service Unavailable}:
+     * <pre>
+     * <b>serve("/reports/*").limitConcurrency(ConcurrencyLimit.vegas(20, 200)).with(MyReportServlet.class)</b>
+     * </pre>
+     * <p/>
+     * A {@link ConcurrencyLimit#vegas(int, int)} limit adapts to the latency of the servlet, a
+     * {@link ConcurrencyLimit#fixed(int)} limit does not. Forwards and includes to a limited servlet are not limited,
+     * and asynchronous requests are counted until they complete.
+     * <p/>
+     * <p/>
      * <h3>Initialization Parameters</h3>
      * <p/>
      * Servlets (and filters) allow you to pass in init params
@@ -347,10 +541,26 @@ public abstract class DaggerServletContextListener implements ServletContextList
         return new ServletDefinitionBuilderImpl(Lists.asList(regex, moreRegexes), UriPatternType.REGEX);
     }
 
+    /**
+     * @param template A path template with {@code {name}} variables, such as {@code /users/{id}/orders/{orderId}}. The
+     *                 variables are injected with the {@link PathParams} binding.
+     */
+    protected final ServletDefinitionBuilder serveTemplate(String template, String... moreTemplates) {
+        return new ServletDefinitionBuilderImpl(Lists.asList(template, moreTemplates), UriPatternType.TEMPLATE);
+    }
+
     /**
      * See the EDSL examples at {@link #configureServlets()}
      */
     public static interface FilterDefinitionBuilder {
+        /**
+         * Applies the filter only to requests of the given dispatcher types, the same as the {@code <dispatcher>}
+         * elements of a web.xml filter mapping. Filters apply to every request that reaches the {@link DaggerFilter}
+         * by default. The {@link DaggerFilter} itself must be mapped to the forward, include or error dispatcher
+         * types in the web.xml to see those requests.
+         */
+        FilterDefinitionBuilder forDispatcherTypes(DispatcherType dispatcherType, DispatcherType... moreTypes);
+
         void through(Class<? extends Filter> filterClass);
 
         void through(Filter filter);
@@ -363,12 +573,20 @@ public abstract class DaggerServletContextListener implements ServletContextList
     private class FilterDefinitionBuilderImpl implements FilterDefinitionBuilder {
         private final List<String> uriPatterns;
         private final UriPatternType uriPatternType;
+        private Set<DispatcherType> dispatcherTypes = EnumSet.allOf(DispatcherType.class);
 
         private FilterDefinitionBuilderImpl(List<String> uriPatterns, UriPatternType uriPatternType) {
             this.uriPatterns = uriPatterns;
             this.uriPatternType = uriPatternType;
         }
 
+        @Override
+        public FilterDefinitionBuilder forDispatcherTypes(DispatcherType dispatcherType,
+                                                          DispatcherType... moreTypes) {
+            dispatcherTypes = EnumSet.of(dispatcherType, moreTypes);
+            return this;
+        }
+
         @Override
         public void through(Class<? extends Filter> filterClass) {
             through(filterClass, Maps.<String, String>newHashMap());
@@ -393,7 +611,7 @@ public abstract class DaggerServletContextListener implements ServletContextList
                              Filter filterInstance) {
             for (String pattern : uriPatterns) {
                 filterDefinitions.add(new FilterDefinition(pattern, filterClass,
-                        UriPatternType.get(uriPatternType, pattern), initParams, filterInstance));
+                        UriPatternType.get(uriPatternType, pattern), initParams, filterInstance, dispatcherTypes));
             }
         }
     }
@@ -402,6 +620,13 @@ public abstract class DaggerServletContextListener implements ServletContextList
      * See the EDSL examples at {@link #configureServlets()}
      */
     public static interface ServletDefinitionBuilder {
+        /**
+         * Rejects requests with {@code 503 Service Unavailable} while the servlet is already servicing as many
+         * requests as the given limit allows. The patterns of one {@code serve} call share the limit. The latency a
+         * limit adapts to is the time until the servlet's {@code service} method returns.
+         */
+        ServletDefinitionBuilder limitConcurrency(ConcurrencyLimit concurrencyLimit);
+
         void with(Class<? extends HttpServlet> servletClass);
 
         void with(HttpServlet servlet);
@@ -414,12 +639,19 @@ public abstract class DaggerServletContextListener implements ServletContextList
     private class ServletDefinitionBuilderImpl implements ServletDefinitionBuilder {
         private final List<String> uriPatterns;
         private final UriPatternType uriPatternType;
+        private ConcurrencyLimit concurrencyLimit = null;
 
         private ServletDefinitionBuilderImpl(List<String> uriPatterns, UriPatternType uriPatternType) {
             this.uriPatterns = uriPatterns;
             this.uriPatternType = uriPatternType;
         }
 
+        @Override
+        public ServletDefinitionBuilder limitConcurrency(ConcurrencyLimit concurrencyLimit) {
+            this.concurrencyLimit = checkNotNull(concurrencyLimit, "concurrencyLimit");
+            return this;
+        }
+
         @Override
         public void with(Class<? extends HttpServlet> servletClass) {
             with(servletClass, Maps.<String, String>newHashMap());
@@ -444,7 +676,7 @@ public abstract class DaggerServletContextListener implements ServletContextList
                           HttpServlet servletInstance) {
             for (String pattern : uriPatterns) {
                 servletDefinitions.add(new ServletDefinition(pattern, servletClass,
-                        UriPatternType.get(uriPatternType, pattern), initParams, servletInstance));
+                        UriPatternType.get(uriPatternType, pattern), initParams, servletInstance, concurrencyLimit));
             }
         }
     }
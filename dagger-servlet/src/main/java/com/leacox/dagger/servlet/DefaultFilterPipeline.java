@@ -22,6 +22,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 
 /**
@@ -44,5 +45,10 @@ class DefaultFilterPipeline implements FilterPipeline {
                          FilterChain proceedingFilterChain) throws IOException, ServletException {
         proceedingFilterChain.doFilter(request, response);
     }
+
+    @Override
+    public boolean hasServletFor(HttpServletRequest request) {
+        return false;
+    }
 }
 
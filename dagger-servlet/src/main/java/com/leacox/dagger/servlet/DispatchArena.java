@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * The objects that every dispatch through the {@link DaggerFilter} needs, kept per thread so they can be reused by the
+ * next request on the same thread instead of being allocated for each request. Only used when the pipeline was
+ * configured to reuse dispatch objects, see {@link DaggerServletContextListener#reuseDispatchObjects()}.
+ * <p/>
+ * An arena is only reused if nothing it handed out may outlive the request. If the request was put into asynchronous
+ * mode, or its context was captured by a {@link ScopedAsyncContext}, the arena is left to the request and the thread
+ * starts over with a new one. A dispatch that re-enters the filter on the same thread, such as a forward, allocates
+ * its own objects.
+ *
+ * @author John Leacox
+ */
+final class DispatchArena {
+    private static final ThreadLocal<DispatchArena> arenas = new ThreadLocal<DispatchArena>();
+
+    // What the reused wrappers point at between requests, so they do not keep the last request of a thread alive.
+    private static final HttpServletRequest RELEASED_REQUEST = releasedRequest();
+
+    // Thread.isVirtual() only exists as of Java 21, so it is looked up reflectively.
+    private static final Method isVirtual = findIsVirtual();
+
+    private final DaggerFilter.Context context = new DaggerFilter.Context(null, null);
+    private final DaggerFilter.Dispatch dispatch = new DaggerFilter.Dispatch();
+    private final FilterChainInvocation filterChain = new FilterChainInvocation(null, null, null);
+    private ManagedFilterPipeline.DispatcherRequestWrapper dispatcherRequest;
+    private ServletPathRequestWrapper servletRequest;
+
+    // The context relative path of the dispatch, and the strings it was computed from.
+    private String requestUri;
+    private String contextPath;
+    private String contextRelativePath;
+
+    private boolean inUse = false;
+    private boolean servletRequestInUse = false;
+    private boolean escaped = false;
+
+    private DispatchArena() {
+    }
+
+    /**
+     * Claims the arena of the current thread for a dispatch.
+     *
+     * @return the arena, or null if the thread's arena is already in use by an enclosing dispatch, or if the current
+     * thread is a virtual thread, which runs a single request and would never reuse it.
+     */
+    static DispatchArena acquire() {
+        DispatchArena arena = arenas.get();
+        if (arena == null) {
+            if (isVirtualThread(Thread.currentThread())) {
+                return null;
+            }
+
+            arena = new DispatchArena();
+            arenas.set(arena);
+        } else if (arena.inUse) {
+            return null;
+        }
+
+        arena.inUse = true;
+        return arena;
+    }
+
+    /**
+     * @return the arena claimed by the dispatch in progress on the current thread, or null if there is none.
+     */
+    static DispatchArena current() {
+        DispatchArena arena = arenas.get();
+        return arena != null && arena.inUse ? arena : null;
+    }
+
+    private static boolean isVirtualThread(Thread thread) {
+        if (isVirtual == null) {
+            return false;
+        }
+
+        try {
+            return (Boolean) isVirtual.invoke(thread);
+        } catch (IllegalAccessException e) {
+            return false;
+        } catch (InvocationTargetException e) {
+            return false;
+        }
+    }
+
+    private static Method findIsVirtual() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the arena of the dispatch in progress on the current thread from being reused, because one of its objects
+     * is kept beyond the dispatch.
+     */
+    static void markEscaped() {
+        DispatchArena arena = current();
+        if (arena != null) {
+            arena.escaped = true;
+        }
+    }
+
+    /**
+     * Ends the dispatch that acquired the arena.
+     */
+    void release(HttpServletRequest request) {
+        inUse = false;
+
+        if (escaped || request.isAsyncStarted()) {
+            arenas.remove();
+            return;
+        }
+
+        context.set(null, null);
+        dispatch.set(null, null, null, null);
+        filterChain.reset(null, null, null);
+        if (dispatcherRequest != null) {
+            dispatcherRequest.reset(RELEASED_REQUEST, null);
+        }
+        if (servletRequest != null) {
+            servletRequest.reset(RELEASED_REQUEST, null);
+        }
+        requestUri = null;
+        contextPath = null;
+        contextRelativePath = null;
+    }
+
+    /**
+     * Returns the request URI without the context path. Both the filter and the servlet pipeline match against it,
+     * so it is only computed once per dispatch if an arena was acquired.
+     */
+    static String contextRelativePath(HttpServletRequest request) {
+        String requestUri = request.getRequestURI();
+        String contextPath = request.getContextPath();
+
+        DispatchArena arena = current();
+        if (arena == null) {
+            return requestUri.substring(contextPath.length());
+        }
+
+        // Compare by identity, a dispatcher may present the same request with another URI.
+        if (requestUri != arena.requestUri || contextPath != arena.contextPath) {
+            arena.requestUri = requestUri;
+            arena.contextPath = contextPath;
+            arena.contextRelativePath = requestUri.substring(contextPath.length());
+        }
+
+        return arena.contextRelativePath;
+    }
+
+    DaggerFilter.Context context(HttpServletRequest request, HttpServletResponse response) {
+        context.set(request, response);
+        return context;
+    }
+
+    DaggerFilter.Dispatch dispatch(FilterPipeline pipeline, ServletRequest request, ServletResponse response,
+                                   FilterChain chain) {
+        return dispatch.set(pipeline, request, response, chain);
+    }
+
+    FilterChainInvocation filterChain(FilterDefinition[] filterDefinitions, ManagedServletPipeline servletPipeline,
+                                      FilterChain proceedingChain) {
+        filterChain.reset(filterDefinitions, servletPipeline, proceedingChain);
+        return filterChain;
+    }
+
+    ManagedFilterPipeline.DispatcherRequestWrapper dispatcherRequest(HttpServletRequest request,
+                                                                     ManagedServletPipeline servletPipeline) {
+        if (dispatcherRequest == null) {
+            dispatcherRequest = new ManagedFilterPipeline.DispatcherRequestWrapper(request, servletPipeline);
+        } else {
+            dispatcherRequest.reset(request, servletPipeline);
+        }
+
+        return dispatcherRequest;
+    }
+
+    /**
+     * @return the wrapper to service a managed servlet with, or null if the arena's wrapper is in use by an enclosing
+     * servlet, such as one that included another managed servlet.
+     */
+    ServletPathRequestWrapper acquireServletRequest(HttpServletRequest request, UriPatternMatcher patternMatcher) {
+        if (servletRequestInUse) {
+            return null;
+        }
+
+        if (servletRequest == null) {
+            servletRequest = new ServletPathRequestWrapper(request, patternMatcher);
+        } else {
+            servletRequest.reset(request, patternMatcher);
+        }
+
+        servletRequestInUse = true;
+        return servletRequest;
+    }
+
+    void releaseServletRequest(HttpServletRequest request) {
+        servletRequestInUse = false;
+
+        // The servlet may have started async processing with the wrapper.
+        if (request.isAsyncStarted()) {
+            escaped = true;
+        } else {
+            servletRequest.reset(RELEASED_REQUEST, null);
+        }
+    }
+
+    /**
+     * Returns a request that fails every call, for wrappers that are not in use. Wrappers cannot point at null.
+     */
+    private static HttpServletRequest releasedRequest() {
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getDeclaringClass() == Object.class) {
+                            return method.getName().equals("equals") ? proxy == args[0]
+                                    : method.getName().equals("hashCode") ? System.identityHashCode(proxy)
+                                    : "released request";
+                        }
+
+                        throw new IllegalStateException("The request wrapper is not in use by a dispatch");
+                    }
+                });
+    }
+}
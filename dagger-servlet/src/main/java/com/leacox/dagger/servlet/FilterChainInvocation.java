@@ -27,6 +27,9 @@ import java.io.IOException;
  * A Filter chain impl which basically passes itself to the "current" filter and iterates the chain
  * on {@code doFilter()}. Modeled on something similar in Apache Tomcat.
  * <p/>
+ * The chain only holds the filters that were already matched against the request path, so it moves
+ * straight from one matching filter to the next.
+ * <p/>
  * Following this, it attempts to dispatch to dagger-servlet's registered servlets using the
  * ManagedServletPipeline.
  * <p/>
@@ -36,13 +39,16 @@ import java.io.IOException;
  * @author John Leacox
  */
 class FilterChainInvocation implements FilterChain {
-    private final FilterDefinition[] filterDefinitions;
-    private final FilterChain proceedingChain;
-    private final ManagedServletPipeline servletPipeline;
+    private FilterDefinition[] filterDefinitions;
+    private FilterChain proceedingChain;
+    private ManagedServletPipeline servletPipeline;
 
     //state variable tracks current link in filterchain
     private int index = -1;
 
+    /**
+     * @param filterDefinitions the filters that match the request path, in chain order.
+     */
     public FilterChainInvocation(FilterDefinition[] filterDefinitions,
                                  ManagedServletPipeline servletPipeline, FilterChain proceedingChain) {
         this.filterDefinitions = filterDefinitions;
@@ -50,6 +56,17 @@ class FilterChainInvocation implements FilterChain {
         this.proceedingChain = proceedingChain;
     }
 
+    /**
+     * Starts the chain over for another request, see {@link DispatchArena}.
+     */
+    void reset(FilterDefinition[] filterDefinitions, ManagedServletPipeline servletPipeline,
+               FilterChain proceedingChain) {
+        this.filterDefinitions = filterDefinitions;
+        this.servletPipeline = servletPipeline;
+        this.proceedingChain = proceedingChain;
+        this.index = -1;
+    }
+
     @Override
     public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse)
             throws IOException, ServletException {
@@ -57,7 +74,7 @@ class FilterChainInvocation implements FilterChain {
 
         //dispatch down the chain while there are more filters
         if (index < filterDefinitions.length) {
-            filterDefinitions[index].doFilter(servletRequest, servletResponse, this);
+            filterDefinitions[index].doFilterMatched(servletRequest, servletResponse, this);
         } else {
             //we've reached the end of the filterchain, let's try to dispatch to a servlet
             final boolean serviced = servletPipeline.service(servletRequest, servletResponse);
@@ -17,11 +17,13 @@
 
 package com.leacox.dagger.servlet;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Sets;
 import dagger.ObjectGraph;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
+import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -30,12 +32,15 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * An internal representation of a filter definition against a particular URI pattern.
  *
@@ -43,35 +48,68 @@ import java.util.concurrent.atomic.AtomicReference;
  * @author John Leacox
  */
 class FilterDefinition {
+    // Filters that were not mapped to any dispatcher types apply to every request that reaches the DaggerFilter.
+    private static final Set<DispatcherType> ALL_DISPATCHER_TYPES = Sets.immutableEnumSet(
+            EnumSet.allOf(DispatcherType.class));
+
     private final String pattern;
     private final Class<? extends Filter> filterClass;
     private final UriPatternMatcher patternMatcher;
     private final Map<String, String> initParams;
     // set only if this was bound to an instance of a Filter.
     private final Filter filterInstance;
+    private final Set<DispatcherType> dispatcherTypes;
 
     // always set after init is called.
     private final AtomicReference<Filter> filter = new AtomicReference<Filter>();
 
+    // Set by the pipeline before init is called.
+    private PipelineMetrics metrics = PipelineMetrics.NONE;
+
     public FilterDefinition(String pattern, Class<? extends Filter> filterClass,
                             UriPatternMatcher patternMatcher, Map<String, String> initParams, Filter filterInstance) {
+        this(pattern, filterClass, patternMatcher, initParams, filterInstance, ALL_DISPATCHER_TYPES);
+    }
+
+    /**
+     * Creates a filter definition that only applies to requests of the given dispatcher types, the same as the
+     * {@code <dispatcher>} elements of a web.xml filter mapping.
+     */
+    public FilterDefinition(String pattern, Class<? extends Filter> filterClass,
+                            UriPatternMatcher patternMatcher, Map<String, String> initParams, Filter filterInstance,
+                            Set<DispatcherType> dispatcherTypes) {
+        checkArgument(!dispatcherTypes.isEmpty(), "A filter must apply to at least one dispatcher type");
         this.pattern = pattern;
         this.filterClass = filterClass;
         this.patternMatcher = patternMatcher;
         this.initParams = Collections.unmodifiableMap(new HashMap<String, String>(initParams));
         this.filterInstance = filterInstance;
+        this.dispatcherTypes = Sets.immutableEnumSet(dispatcherTypes);
     }
 
     public FilterDefinition get() {
         return this;
     }
 
-    private boolean shouldFilter(String uri) {
+    boolean appliesTo(DispatcherType dispatcherType) {
+        return dispatcherTypes.contains(dispatcherType);
+    }
+
+    boolean appliesToAllDispatcherTypes() {
+        return dispatcherTypes.size() == ALL_DISPATCHER_TYPES.size();
+    }
+
+    boolean shouldFilter(String uri) {
         return patternMatcher.matches(uri);
     }
 
-    public void init(final ServletContext servletContext, ObjectGraph objectGraph,
-                     Set<Filter> initializedSoFar) throws ServletException {
+    /**
+     * Initializes the filter, unless it is in {@code initializedSoFar}, and adds it to the set.
+     *
+     * @return true if the filter was initialized by this call
+     */
+    public boolean init(final ServletContext servletContext, ObjectGraph objectGraph,
+                        Set<Filter> initializedSoFar) throws ServletException {
         // This absolutely must be a singleton, and so is only initialized once.
         // TODO: There isn't a good way to make sure the class is a singleton. Classes with the @Singleton annotation
         // can be identified, but classes that are singletons via an @Singleton annotated @Provides method won't
@@ -81,6 +119,24 @@ class FilterDefinition {
 //                    + filterClass + " was not bound in singleton scope.");
 //        }
 
+        Filter filter = resolve(objectGraph);
+
+        // Only fire init() if this Singleton filter has not already appeared earlier
+        // in the filter chain.
+        if (initializedSoFar.contains(filter)) {
+            return false;
+        }
+
+        initialize(servletContext);
+        initializedSoFar.add(filter);
+        return true;
+    }
+
+    /**
+     * Gets the filter from the object graph, or the bound instance, and keeps it for dispatch without initializing
+     * it.
+     */
+    Filter resolve(ObjectGraph objectGraph) {
         Filter filter;
         if (filterInstance == null) {
             filter = objectGraph.get(filterClass);
@@ -89,14 +145,14 @@ class FilterDefinition {
         }
         this.filter.set(filter);
 
-        // Only fire init() if this Singleton filter has not already appeared earlier
-        // in the filter chain.
-        if (initializedSoFar.contains(filter)) {
-            return;
-        }
+        return filter;
+    }
 
-        // Initialize our filter with the configured context params and servlet context.
-        filter.init(new FilterConfig() {
+    /**
+     * Initializes the resolved filter with the configured context params and servlet context.
+     */
+    void initialize(final ServletContext servletContext) throws ServletException {
+        filter.get().init(new FilterConfig() {
             @Override
             public String getFilterName() {
                 return filterClass.getCanonicalName();
@@ -117,8 +173,6 @@ class FilterDefinition {
                 return Iterators.asEnumeration(initParams.keySet().iterator());
             }
         });
-
-        initializedSoFar.add(filter);
     }
 
     public void destroy(Set<Filter> destroyedSoFar) {
@@ -158,7 +212,31 @@ class FilterDefinition {
         }
     }
 
-    @VisibleForTesting
+    /**
+     * Applies the filter without checking the request path, for filter chains that were already matched against it.
+     */
+    void doFilterMatched(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
+            throws IOException, ServletException {
+        if (metrics == PipelineMetrics.NONE) {
+            filter.get().doFilter(servletRequest, servletResponse, filterChain);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            filter.get().doFilter(servletRequest, servletResponse, filterChain);
+        } finally {
+            metrics.filterCompleted(filterClass, pattern, System.nanoTime() - start);
+        }
+    }
+
+    void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the resolved filter, or {@code null} if the filter has not been resolved yet.
+     */
     Filter getFilter() {
         return filter.get();
     }
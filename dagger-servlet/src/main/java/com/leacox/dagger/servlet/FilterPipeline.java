@@ -22,6 +22,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 
 /**
@@ -44,4 +45,10 @@ interface FilterPipeline {
 
     void dispatch(ServletRequest request, ServletResponse response, FilterChain defaultFilterChain)
             throws IOException, ServletException;
+
+    /**
+     * @return whether a managed servlet is mapped to the path of the request, so that the request does not continue
+     * to web.xml's servlet pipeline unless a managed filter changes its path.
+     */
+    boolean hasServletFor(HttpServletRequest request);
 }
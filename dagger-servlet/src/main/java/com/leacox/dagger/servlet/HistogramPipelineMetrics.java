@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import javax.servlet.Filter;
+import javax.servlet.http.HttpServlet;
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link PipelineMetrics} that keeps a {@link LatencyHistogram} for the whole dispatch, for each managed servlet and
+ * for each managed filter, and counts servlet matches, misses and rejections and the creation of scoped objects. It
+ * also keeps the last reported {@link ConcurrencyLimit} of each limited servlet. Recording is
+ * lock-free and does not allocate once every servlet, filter and scoped type was seen.
+ *
+ * @author John Leacox
+ */
+public class HistogramPipelineMetrics implements PipelineMetrics {
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    // By servlet pattern, which is unique.
+    private final ConcurrentMap<String, LatencyHistogram> servletLatencies =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+    // By filter class and then by pattern, since a filter may be mapped more than once.
+    private final ConcurrentMap<Class<?>, ConcurrentMap<String, LatencyHistogram>> filterLatencies =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<String, LatencyHistogram>>();
+    private final AtomicLong servletMatches = new AtomicLong();
+    private final AtomicLong servletMisses = new AtomicLong();
+    // By servlet pattern.
+    private final ConcurrentMap<String, AtomicLong> servletRejections = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Integer> concurrencyLimits = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<Class<?>, AtomicLong> scopedInstancesCreated =
+            new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+    @Override
+    public void dispatchCompleted(long durationNanos) {
+        dispatchLatency.record(durationNanos);
+    }
+
+    @Override
+    public void filterCompleted(Class<? extends Filter> filterClass, String pattern, long durationNanos) {
+        ConcurrentMap<String, LatencyHistogram> byPattern = filterLatencies.get(filterClass);
+        if (byPattern == null) {
+            byPattern = putIfAbsent(filterLatencies, filterClass, new ConcurrentHashMap<String, LatencyHistogram>());
+        }
+
+        histogram(byPattern, pattern).record(durationNanos);
+    }
+
+    @Override
+    public void servletCompleted(Class<? extends HttpServlet> servletClass, String pattern, long durationNanos) {
+        servletMatches.incrementAndGet();
+        histogram(servletLatencies, pattern).record(durationNanos);
+    }
+
+    @Override
+    public void servletNotMatched() {
+        servletMisses.incrementAndGet();
+    }
+
+    @Override
+    public void servletRejected(Class<? extends HttpServlet> servletClass, String pattern, int limit) {
+        AtomicLong rejections = servletRejections.get(pattern);
+        if (rejections == null) {
+            rejections = putIfAbsent(servletRejections, pattern, new AtomicLong());
+        }
+
+        rejections.incrementAndGet();
+        concurrencyLimits.put(pattern, limit);
+    }
+
+    @Override
+    public void concurrencyLimitChanged(Class<? extends HttpServlet> servletClass, String pattern, int limit) {
+        concurrencyLimits.put(pattern, limit);
+    }
+
+    @Override
+    public void scopedInstanceCreated(Class<? extends Annotation> scope, Class<?> type) {
+        AtomicLong created = scopedInstancesCreated.get(type);
+        if (created == null) {
+            created = putIfAbsent(scopedInstancesCreated, type, new AtomicLong());
+        }
+
+        created.incrementAndGet();
+    }
+
+    /**
+     * @return the latency of whole dispatches through the pipeline.
+     */
+    public LatencyHistogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    /**
+     * @return the latency of the servlet mapped to the given pattern, or null if it did not service a request yet.
+     */
+    public LatencyHistogram getServletLatency(String pattern) {
+        return servletLatencies.get(pattern);
+    }
+
+    /**
+     * @return a live view of the servlet latencies, by servlet pattern.
+     */
+    public Map<String, LatencyHistogram> getServletLatencies() {
+        return Collections.unmodifiableMap(servletLatencies);
+    }
+
+    /**
+     * @return the latency of the given filter mapped to the given pattern, including the rest of the chain, or null
+     * if it did not filter a request yet.
+     */
+    public LatencyHistogram getFilterLatency(Class<? extends Filter> filterClass, String pattern) {
+        Map<String, LatencyHistogram> byPattern = filterLatencies.get(filterClass);
+        return (byPattern == null) ? null : byPattern.get(pattern);
+    }
+
+    /**
+     * @return the number of requests serviced by a managed servlet.
+     */
+    public long getServletMatches() {
+        return servletMatches.get();
+    }
+
+    /**
+     * @return the number of requests no managed servlet matched.
+     */
+    public long getServletMisses() {
+        return servletMisses.get();
+    }
+
+    /**
+     * @return the number of requests the servlet mapped to the given pattern rejected over its concurrency limit.
+     */
+    public long getServletRejections(String pattern) {
+        AtomicLong rejections = servletRejections.get(pattern);
+        return (rejections == null) ? 0 : rejections.get();
+    }
+
+    /**
+     * @return a live view of the last reported concurrency limits, by servlet pattern. A limit is reported when it
+     * changes or rejects a request.
+     */
+    public Map<String, Integer> getConcurrencyLimits() {
+        return Collections.unmodifiableMap(concurrencyLimits);
+    }
+
+    /**
+     * @return the number of scoped objects of the given type created so far, in any scope.
+     */
+    public long getScopedInstancesCreated(Class<?> type) {
+        AtomicLong created = scopedInstancesCreated.get(type);
+        return (created == null) ? 0 : created.get();
+    }
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> histograms, String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = putIfAbsent(histograms, key, new LatencyHistogram());
+        }
+
+        return histogram;
+    }
+
+    private static <K, V> V putIfAbsent(ConcurrentMap<K, V> map, K key, V value) {
+        V existing = map.putIfAbsent(key, value);
+        return (existing != null) ? existing : value;
+    }
+}
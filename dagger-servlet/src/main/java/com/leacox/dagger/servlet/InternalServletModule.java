@@ -35,6 +35,7 @@ import javax.inject.Singleton;
                 InternalServletModule.FullModulesProvider.class,
                 InternalServletModule.FilterDefinitionsProvider.class,
                 InternalServletModule.ServletDefinitionsProvider.class,
+                InternalServletModule.PipelineOptionsProvider.class,
                 FilterPipeline.class,
                 ManagedFilterPipeline.class,
                 ManagedServletPipeline.class,
@@ -51,8 +52,9 @@ class InternalServletModule {
 
     @Provides
     @Singleton
-    ManagedServletPipeline provideServletPipeline(ServletDefinition[] servletDefinitions) {
-        return new ManagedServletPipeline(servletDefinitions);
+    ManagedServletPipeline provideServletPipeline(ServletDefinition[] servletDefinitions,
+                                                  PipelineOptions pipelineOptions) {
+        return new ManagedServletPipeline(servletDefinitions, pipelineOptions);
     }
 
     @Provides
@@ -80,6 +82,12 @@ class InternalServletModule {
         return servletDefinitionsProvider.get();
     }
 
+    @Provides
+    @Singleton
+    PipelineOptions providePipelineOptions(PipelineOptionsProvider pipelineOptionsProvider) {
+        return pipelineOptionsProvider.get();
+    }
+
     @Singleton
     static class ObjectGraphProvider implements Provider<ObjectGraph> {
         private ObjectGraph objectGraph;
@@ -151,4 +159,22 @@ class InternalServletModule {
             return servletDefinitions;
         }
     }
+
+    @Singleton
+    static class PipelineOptionsProvider implements Provider<PipelineOptions> {
+        private PipelineOptions pipelineOptions = PipelineOptions.DEFAULT;
+
+        @Inject
+        PipelineOptionsProvider() {
+        }
+
+        void set(PipelineOptions pipelineOptions) {
+            this.pipelineOptions = pipelineOptions;
+        }
+
+        @Override
+        public PipelineOptions get() {
+            return pipelineOptions;
+        }
+    }
 }
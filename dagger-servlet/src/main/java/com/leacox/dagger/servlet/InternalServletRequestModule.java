@@ -25,6 +25,7 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -76,4 +77,12 @@ class InternalServletRequestModule {
     Map<String, String[]> provideRequestParameters() {
         return DaggerFilter.getRequest().getParameterMap();
     }
+
+    @Provides
+    @PathParams
+    Map<String, String> providePathParameters() {
+        // Not a request singleton, a forward to another path template has its own variables.
+        Map<String, String> pathParameters = PathParameters.of(DaggerFilter.getRequest());
+        return pathParameters != null ? pathParameters : Collections.<String, String>emptyMap();
+    }
 }
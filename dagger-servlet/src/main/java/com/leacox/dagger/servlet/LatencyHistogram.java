@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, in the style of HdrHistogram. Recording a value is a few atomic
+ * increments and never allocates, so it can be called from every request.
+ * <p/>
+ * Values are counted in log-linear buckets: every power of two range is split into {@value #SUB_BUCKETS} linear
+ * buckets, so a reported value is within about 6% of the recorded one. Reads are not atomic with respect to
+ * concurrent recording, so a snapshot may be off by the values recorded while it was read.
+ *
+ * @author John Leacox
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int MAX_SHIFT = 63 - SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * HALF_SUB_BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a duration. Negative durations, from a clock that went backwards, are recorded as zero.
+     */
+    public void record(long durationNanos) {
+        long value = Math.max(0, durationNanos);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalNanos.addAndGet(value);
+
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded durations.
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return the mean of the recorded durations, or 0 if none were recorded.
+     */
+    public double getMeanNanos() {
+        long count = totalCount.get();
+        return (count == 0) ? 0 : (double) totalNanos.get() / count;
+    }
+
+    /**
+     * @return the largest recorded duration, or 0 if none were recorded.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Returns the duration that the given percentage of the recorded durations are less than or equal to, such as
+     * {@code 99.0} for the 99th percentile.
+     *
+     * @return the upper bound of the bucket holding the percentile, or 0 if no durations were recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxNanos.get());
+            }
+        }
+
+        return maxNanos.get();
+    }
+
+    static int bucketIndex(long value) {
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = Math.max(0, highestBit - (SUB_BUCKET_BITS - 1));
+        return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long bucketUpperBound(int index) {
+        int shift = Math.max(0, index / HALF_SUB_BUCKETS - 1);
+        long subBucket = index - shift * HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + getCount() + ", meanNanos=" + getMeanNanos() + ", p99Nanos="
+                + getValueAtPercentile(99.0) + ", maxNanos=" + getMaxNanos() + "}";
+    }
+}
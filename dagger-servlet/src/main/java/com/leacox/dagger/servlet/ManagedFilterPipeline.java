@@ -17,12 +17,18 @@
 
 package com.leacox.dagger.servlet;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import dagger.ObjectGraph;
+import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.RequestDispatcher;
@@ -30,72 +36,346 @@ import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Central routing/dispatch class handles lifecycle of managed filters, and delegates to the servlet
  * pipeline.
+ * <p/>
+ * If the pipeline options allow it, the pipeline created by the object graph can be replaced with a new set of filters
+ * and servlets by {@link #replace}. It then forwards each dispatch to the pipeline that is current when the dispatch
+ * starts, without taking a lock. Otherwise dispatches are not counted at all.
  *
  * @author dhanji@gmail.com (Dhanji R. Prasanna)
  * @author John Leacox
  */
 @Singleton
 class ManagedFilterPipeline implements FilterPipeline {
+    // The number of distinct request paths to remember matched filter chains for, per dispatcher type.
+    @VisibleForTesting
+    static final int MATCHED_CHAIN_CACHE_SIZE = 1024;
+
+    // How often a replaced pipeline is checked for dispatches that have not completed yet.
+    private static final long DRAIN_POLL_MILLIS = 10;
+
     private final FilterDefinition[] filterDefinitions;
     private final ManagedServletPipeline servletPipeline;
     private final ServletContext servletContext;
+    private final PipelineOptions pipelineOptions;
+    private final boolean reuseDispatchObjects;
+    private final PipelineMetrics metrics;
+    private final boolean initializeInParallel;
+    private final boolean replaceable;
 
     // Unfortunately, we need the object graph itself in order to create filters + servlets
     private final ObjectGraph objectGraph;
 
+    // The filters and matched chains of every dispatcher type, if no filter is mapped to only some dispatcher types
+    private final DispatcherChains allDispatcherChains;
+    // Otherwise the filters and matched chains of each dispatcher type
+    private final Map<DispatcherType, DispatcherChains> chainsByDispatcherType;
+
     // Guards a DCL, so needs to be volatile
     private volatile boolean initialized = false;
 
-    @Inject
+    // The pipeline that dispatches are forwarded to, this pipeline until it is replaced
+    private volatile ManagedFilterPipeline current = this;
+    // The dispatches on this pipeline that have not completed yet
+    private final AtomicInteger activeDispatches = new AtomicInteger();
+    // Set once this pipeline has been replaced, after which no new dispatches start on it
+    private volatile boolean retired = false;
+    // Serializes replacing the pipeline and destroying it
+    private final Object replaceLock = new Object();
+    // Set if this pipeline was replaced before its dispatches completed, taken by whoever destroys it
+    private final AtomicReference<PendingDestroy> pendingDestroy = new AtomicReference<PendingDestroy>();
+
+    // The filters and servlets initialized by this pipeline, as opposed to the ones shared with a previous pipeline
+    private final Set<Filter> initializedFilters =
+            Collections.synchronizedSet(Sets.newSetFromMap(Maps.<Filter, Boolean>newIdentityHashMap()));
+    private final Set<HttpServlet> initializedServlets =
+            Collections.synchronizedSet(Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()));
+
     ManagedFilterPipeline(ObjectGraph objectGraph, ManagedServletPipeline servletPipeline,
                           ServletContext servletContext, FilterDefinition[] filterDefinitions) {
+        this(objectGraph, servletPipeline, servletContext, filterDefinitions, PipelineOptions.DEFAULT);
+    }
+
+    @Inject
+    ManagedFilterPipeline(ObjectGraph objectGraph, ManagedServletPipeline servletPipeline,
+                          ServletContext servletContext, FilterDefinition[] filterDefinitions,
+                          PipelineOptions pipelineOptions) {
         this.objectGraph = objectGraph;
         this.servletPipeline = servletPipeline;
         this.servletContext = servletContext;
+        this.pipelineOptions = pipelineOptions;
+        this.reuseDispatchObjects = pipelineOptions.reuseDispatchObjects();
+        this.metrics = pipelineOptions.metrics();
+        this.initializeInParallel = pipelineOptions.initializeInParallel();
+        this.replaceable = pipelineOptions.replaceable();
 
         this.filterDefinitions = filterDefinitions;
+        boolean dispatcherTypeAware = false;
+        for (FilterDefinition filterDefinition : filterDefinitions) {
+            filterDefinition.setMetrics(metrics);
+            dispatcherTypeAware |= !filterDefinition.appliesToAllDispatcherTypes();
+        }
+
+        if (dispatcherTypeAware) {
+            this.allDispatcherChains = null;
+            this.chainsByDispatcherType = Maps.newEnumMap(DispatcherType.class);
+            for (DispatcherType dispatcherType : DispatcherType.values()) {
+                chainsByDispatcherType.put(dispatcherType,
+                        new DispatcherChains(filterDefinitionsFor(dispatcherType, filterDefinitions)));
+            }
+        } else {
+            this.allDispatcherChains = new DispatcherChains(filterDefinitions);
+            this.chainsByDispatcherType = null;
+        }
+    }
+
+    private static FilterDefinition[] filterDefinitionsFor(DispatcherType dispatcherType,
+                                                           FilterDefinition[] filterDefinitions) {
+        List<FilterDefinition> applicable = Lists.newArrayListWithCapacity(filterDefinitions.length);
+        for (FilterDefinition filterDefinition : filterDefinitions) {
+            if (filterDefinition.appliesTo(dispatcherType)) {
+                applicable.add(filterDefinition);
+            }
+        }
+
+        return applicable.toArray(new FilterDefinition[applicable.size()]);
     }
 
     @Override
-    public synchronized void initPipeline(ServletContext servletContext)
+    public void initPipeline(ServletContext servletContext)
             throws ServletException {
+        initPipeline(servletContext, Sets.newSetFromMap(Maps.<Filter, Boolean>newIdentityHashMap()),
+                Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()));
+    }
+
+    /**
+     * Initializes the filters and servlets that are not in {@code filtersSoFar} and {@code servletsSoFar}, which are
+     * already initialized by a pipeline that is still in service.
+     */
+    private synchronized void initPipeline(ServletContext servletContext, Set<Filter> filtersSoFar,
+                                           Set<HttpServlet> servletsSoFar) throws ServletException {
         //double-checked lock, prevents duplicate initialization
         if (initialized)
             return;
 
-        // Used to prevent duplicate initialization.
-        Set<Filter> initializedSoFar = Sets.newSetFromMap(Maps.<Filter, Boolean>newIdentityHashMap());
+        if (initializeInParallel) {
+            initInParallel(servletContext, filtersSoFar, servletsSoFar);
+        } else {
+            for (FilterDefinition filterDefinition : filterDefinitions) {
+                if (filterDefinition.init(servletContext, objectGraph, filtersSoFar)) {
+                    initializedFilters.add(filterDefinition.getFilter());
+                }
+            }
 
-        for (FilterDefinition filterDefinition : filterDefinitions) {
-            filterDefinition.init(servletContext, objectGraph, initializedSoFar);
+            //next, initialize servlets...
+            servletPipeline.init(servletContext, objectGraph, servletsSoFar, initializedServlets);
         }
 
-        //next, initialize servlets...
-        servletPipeline.init(servletContext, objectGraph);
-
         //everything was ok...
         initialized = true;
     }
 
+    /**
+     * Resolves every filter and servlet in order, then initializes each distinct filter and servlet instance once, in
+     * parallel. Filters and servlets that appear more than once are only initialized for their first definition.
+     */
+    private void initInParallel(final ServletContext servletContext, Set<Filter> filtersSoFar,
+                                Set<HttpServlet> servletsSoFar) throws ServletException {
+        List<Callable<Void>> initializers = Lists.newArrayList();
+
+        for (final FilterDefinition filterDefinition : filterDefinitions) {
+            final Filter filter = filterDefinition.resolve(objectGraph);
+            if (filtersSoFar.add(filter)) {
+                initializers.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws ServletException {
+                        filterDefinition.initialize(servletContext);
+                        initializedFilters.add(filter);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        initializers.addAll(servletPipeline.initializers(servletContext, objectGraph, servletsSoFar,
+                initializedServlets));
+
+        ParallelInitializer.initialize(initializers);
+    }
+
     @Override
     public void dispatch(ServletRequest request, ServletResponse response,
                          FilterChain proceedingFilterChain) throws IOException, ServletException {
+        if (!replaceable) {
+            dispatchActive(request, response, proceedingFilterChain);
+            return;
+        }
+
+        ManagedFilterPipeline pipeline = acquire();
+        try {
+            pipeline.dispatchActive(request, response, proceedingFilterChain);
+        } finally {
+            pipeline.release();
+        }
+    }
+
+    /**
+     * Counts a dispatch on the current pipeline and returns it. The dispatch is counted before the pipeline is checked
+     * for being retired, so a pipeline is either seen as retired here, or seen with the dispatch by
+     * {@link #awaitDispatches()}.
+     */
+    private ManagedFilterPipeline acquire() {
+        while (true) {
+            ManagedFilterPipeline pipeline = current;
+            pipeline.activeDispatches.incrementAndGet();
+            if (!pipeline.retired) {
+                return pipeline;
+            }
+
+            // Replaced in the meantime, try again with the new pipeline.
+            pipeline.release();
+        }
+    }
+
+    /**
+     * Completes a dispatch counted by {@link #acquire()}. The last dispatch of a retired pipeline destroys it, if the
+     * replacement stopped waiting for it.
+     */
+    private void release() {
+        if (activeDispatches.decrementAndGet() == 0 && retired) {
+            try {
+                destroyIfPending();
+            } catch (RuntimeException e) {
+                // Do not fail the request that happened to complete last.
+                LoggerFactory.getLogger(ManagedFilterPipeline.class).warn("Failed to destroy a replaced pipeline", e);
+            }
+        }
+    }
+
+    private void dispatchActive(ServletRequest request, ServletResponse response, FilterChain proceedingFilterChain)
+            throws IOException, ServletException {
         if (!initialized) {
             initPipeline(servletContext);
         }
 
+        if (metrics == PipelineMetrics.NONE) {
+            doDispatch(request, response, proceedingFilterChain);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            doDispatch(request, response, proceedingFilterChain);
+        } finally {
+            metrics.dispatchCompleted(System.nanoTime() - start);
+        }
+    }
+
+    private void doDispatch(ServletRequest request, ServletResponse response, FilterChain proceedingFilterChain)
+            throws IOException, ServletException {
+        // Reuse the dispatch objects of this thread if the DaggerFilter claimed them for this request.
+        DispatchArena arena = DispatchArena.current();
+
         //obtain the servlet pipeline to dispatch against
-        new FilterChainInvocation(filterDefinitions, servletPipeline, proceedingFilterChain)
-                .doFilter(withDispatcher(request, servletPipeline), response);
+        FilterChainInvocation filterChain = (arena != null)
+                ? arena.filterChain(matchFilters(request), servletPipeline, proceedingFilterChain)
+                : new FilterChainInvocation(matchFilters(request), servletPipeline, proceedingFilterChain);
+        filterChain.doFilter(withDispatcher(request, servletPipeline, arena), response);
+
+    }
+
+    /**
+     * Returns the filters that match the request path, in chain order. The path is matched against every filter once
+     * per dispatch, and the chain is cached so that repeated paths skip matching entirely.
+     * <p/>
+     * If some filters are only mapped to some dispatcher types, only the filters mapped to the dispatcher type of the
+     * request are matched, and the chains of each dispatcher type are cached separately.
+     * <p/>
+     * An include is then matched against the path of the included resource, the same as a web.xml filter mapping,
+     * since the request URI of an include is still the URI of the including request. If no filter is limited to some
+     * dispatcher types, the dispatcher type is not read, and every dispatch is matched against the request URI as
+     * before.
+     */
+    @VisibleForTesting
+    FilterDefinition[] matchFilters(ServletRequest servletRequest) {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        if (chainsByDispatcherType == null) {
+            return allDispatcherChains.match(request, false);
+        }
+
+        DispatcherType dispatcherType = request.getDispatcherType();
+        return chainsByDispatcherType.get(dispatcherType).match(request, dispatcherType == DispatcherType.INCLUDE);
+    }
+
+    /**
+     * Gets the context relative path of the resource being included, from the include attributes the container sets.
+     */
+    private static String includedPath(HttpServletRequest request) {
+        String requestUri = (String) request.getAttribute(RequestDispatcher.INCLUDE_REQUEST_URI);
+        if (requestUri == null) {
+            return DispatchArena.contextRelativePath(request);
+        }
+
+        String contextPath = (String) request.getAttribute(RequestDispatcher.INCLUDE_CONTEXT_PATH);
+        if (contextPath == null) {
+            contextPath = request.getContextPath();
+        }
+
+        return requestUri.startsWith(contextPath) ? requestUri.substring(contextPath.length()) : requestUri;
+    }
+
+    /**
+     * The filters that apply to a dispatcher type, and the chains matched from them by context relative path.
+     */
+    private static final class DispatcherChains {
+        private final FilterDefinition[] filterDefinitions;
+        private final Cache<String, FilterDefinition[]> matchedChains = CacheBuilder.newBuilder()
+                .maximumSize(MATCHED_CHAIN_CACHE_SIZE)
+                .build();
 
+        DispatcherChains(FilterDefinition[] filterDefinitions) {
+            this.filterDefinitions = filterDefinitions;
+        }
+
+        FilterDefinition[] match(HttpServletRequest request, boolean include) {
+            if (filterDefinitions.length == 0) {
+                return filterDefinitions;
+            }
+
+            String path = include ? includedPath(request) : DispatchArena.contextRelativePath(request);
+
+            FilterDefinition[] matchedChain = matchedChains.getIfPresent(path);
+            if (matchedChain == null) {
+                List<FilterDefinition> matched = Lists.newArrayListWithCapacity(filterDefinitions.length);
+                for (FilterDefinition filterDefinition : filterDefinitions) {
+                    if (filterDefinition.shouldFilter(path)) {
+                        matched.add(filterDefinition);
+                    }
+                }
+
+                matchedChain = matched.toArray(new FilterDefinition[matched.size()]);
+                matchedChains.put(path, matchedChain);
+            }
+
+            return matchedChain;
+        }
     }
 
     /**
@@ -111,7 +391,7 @@ class ManagedFilterPipeline implements FilterPipeline {
      */
     @SuppressWarnings({"JavaDoc", "deprecation"})
     private ServletRequest withDispatcher(ServletRequest servletRequest,
-                                          final ManagedServletPipeline servletPipeline) {
+                                          final ManagedServletPipeline servletPipeline, DispatchArena arena) {
         HttpServletRequest request = (HttpServletRequest) servletRequest;
 
         // don't wrap the request if there are no servlets mapped. This prevents us from inserting our
@@ -121,28 +401,227 @@ class ManagedFilterPipeline implements FilterPipeline {
             return servletRequest;
         }
 
-        //noinspection OverlyComplexAnonymousInnerClass
-        return new HttpServletRequestWrapper(request) {
+        return (arena != null)
+                ? arena.dispatcherRequest(request, servletPipeline)
+                : new DispatcherRequestWrapper(request, servletPipeline);
+    }
+
+    @Override
+    public boolean hasServletFor(HttpServletRequest request) {
+        return current.servletPipeline.hasServletFor(request);
+    }
+
+    /**
+     * Whether the objects of each dispatch are reused by the next request on the same thread.
+     */
+    boolean reusesDispatchObjects() {
+        return reuseDispatchObjects;
+    }
+
+    /**
+     * Replaces the filters and servlets of this pipeline. A new pipeline is created for the given definitions, and
+     * its filters and servlets are initialized, except for the instances that are already in service. The new pipeline
+     * then takes every new dispatch, while the dispatches in progress complete on the previous pipeline. Once they
+     * have, the filters and servlets that are no longer used are destroyed.
+     * <p/>
+     * This waits up to the given timeout for the dispatches in progress. If they have not completed by then, the last
+     * of them destroys the previous pipeline instead. If the new pipeline fails to initialize, the filters and
+     * servlets it initialized are destroyed, and the previous pipeline stays in service. Work that a request
+     * continues asynchronously is not waited for.
+     *
+     * @return true if the previous pipeline was destroyed before returning, false if it is destroyed once its
+     * dispatches complete
+     * @throws IllegalStateException if the pipeline options do not allow replacing the pipeline, or if called while
+     *                               dispatching a request, which would wait for its own dispatch
+     */
+    boolean replace(FilterDefinition[] filterDefinitions, ServletDefinition[] servletDefinitions, long timeout,
+                    TimeUnit unit) throws ServletException {
+        checkState(replaceable, "The filter pipeline cannot be replaced, since it is not configured to allow it");
+        checkState(DaggerFilter.getRequest() == null, "The filter pipeline cannot be replaced while dispatching a "
+                + "request, since that request would be waited for");
+
+        synchronized (replaceLock) {
+            ManagedFilterPipeline previous = current;
+            // Initialize the previous pipeline first, so it does not initialize filters or servlets that the new
+            // pipeline already has once it is replaced.
+            previous.initPipeline(servletContext);
+
+            ManagedFilterPipeline replacement = new ManagedFilterPipeline(objectGraph,
+                    new ManagedServletPipeline(servletDefinitions, pipelineOptions), servletContext, filterDefinitions,
+                    pipelineOptions);
+            try {
+                replacement.initPipeline(servletContext, previous.collectFilters(), previous.collectServlets());
+            } catch (ServletException e) {
+                replacement.destroyInitialized();
+                throw e;
+            } catch (RuntimeException e) {
+                replacement.destroyInitialized();
+                throw e;
+            }
+
+            current = replacement;
+            previous.retired = true;
+
+            Set<Filter> filtersInService = replacement.collectFilters();
+            Set<HttpServlet> servletsInService = replacement.collectServlets();
+            if (previous.awaitDispatches(unit.toNanos(timeout))) {
+                previous.destroyPipeline(filtersInService, servletsInService);
+                return true;
+            }
+
+            // Leave the destruction to the last dispatch, unless it completed before it could see it was left.
+            previous.pendingDestroy.set(new PendingDestroy(filtersInService, servletsInService));
+            if (previous.activeDispatches.get() == 0) {
+                previous.destroyIfPending();
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Gets the pipeline that new dispatches are forwarded to.
+     */
+    @VisibleForTesting
+    ManagedFilterPipeline current() {
+        return current;
+    }
+
+    /**
+     * Waits for the dispatches of this retired pipeline to complete.
+     *
+     * @return false if they did not complete within the timeout, or the wait was interrupted
+     */
+    private boolean awaitDispatches(long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (activeDispatches.get() > 0) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                return false;
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(DRAIN_POLL_MILLIS)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return true;
+    }
 
-            @Override
-            public RequestDispatcher getRequestDispatcher(String path) {
-                final RequestDispatcher dispatcher = servletPipeline.getRequestDispatcher(path);
+    /**
+     * Destroys this retired pipeline, unless it was already destroyed. Either the replacement or the last dispatch of
+     * this pipeline gets here first.
+     */
+    private void destroyIfPending() {
+        PendingDestroy destroy = pendingDestroy.getAndSet(null);
+        if (destroy != null) {
+            destroyPipeline(destroy.filtersInService, destroy.servletsInService);
+        }
+    }
+
+    /**
+     * Destroys the filters and servlets that this pipeline initialized, after it failed to initialize.
+     */
+    private void destroyInitialized() {
+        // The initialization failure is the one reported.
+        synchronized (initializedServlets) {
+            for (HttpServlet servlet : initializedServlets) {
+                try {
+                    servlet.destroy();
+                } catch (RuntimeException e) {
+                    LoggerFactory.getLogger(ManagedFilterPipeline.class).warn("Failed to destroy " + servlet, e);
+                }
+            }
+        }
+        synchronized (initializedFilters) {
+            for (Filter filter : initializedFilters) {
+                try {
+                    filter.destroy();
+                } catch (RuntimeException e) {
+                    LoggerFactory.getLogger(ManagedFilterPipeline.class).warn("Failed to destroy " + filter, e);
+                }
+            }
+        }
+    }
 
-                return (null != dispatcher) ? dispatcher : super.getRequestDispatcher(path);
+    private Set<Filter> collectFilters() {
+        Set<Filter> filters = Sets.newSetFromMap(Maps.<Filter, Boolean>newIdentityHashMap());
+        for (FilterDefinition filterDefinition : filterDefinitions) {
+            Filter filter = filterDefinition.getFilter();
+            if (filter != null) {
+                filters.add(filter);
             }
-        };
+        }
+
+        return filters;
+    }
+
+    private Set<HttpServlet> collectServlets() {
+        Set<HttpServlet> servlets = Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap());
+        servletPipeline.collectServlets(servlets);
+
+        return servlets;
     }
 
     @Override
     public void destroyPipeline() {
+        synchronized (replaceLock) {
+            current.destroyPipeline(Sets.newSetFromMap(Maps.<Filter, Boolean>newIdentityHashMap()),
+                    Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()));
+        }
+    }
+
+    /**
+     * Destroys the filters and servlets that are not in {@code filtersSoFar} and {@code servletsSoFar}.
+     */
+    private void destroyPipeline(Set<Filter> filtersSoFar, Set<HttpServlet> servletsSoFar) {
         //destroy servlets first
-        servletPipeline.destroy();
+        servletPipeline.destroy(servletsSoFar);
 
         //go down chain and destroy all our filters
-        Set<Filter> destroyedSoFar = Sets.newSetFromMap(Maps.<Filter, Boolean>newIdentityHashMap());
         for (FilterDefinition filterDefinition : filterDefinitions) {
-            filterDefinition.destroy(destroyedSoFar);
+            filterDefinition.destroy(filtersSoFar);
         }
     }
-}
 
+    /**
+     * The filters and servlets a retired pipeline must not destroy, since its replacement still has them in service.
+     */
+    private static final class PendingDestroy {
+        final Set<Filter> filtersInService;
+        final Set<HttpServlet> servletsInService;
+
+        PendingDestroy(Set<Filter> filtersInService, Set<HttpServlet> servletsInService) {
+            this.filtersInService = filtersInService;
+            this.servletsInService = servletsInService;
+        }
+    }
+
+    /**
+     * The request proxy created by {@code withDispatcher}. It can be pointed at another request, so that it can be
+     * reused by a {@link DispatchArena}.
+     */
+    static final class DispatcherRequestWrapper extends HttpServletRequestWrapper {
+        private ManagedServletPipeline servletPipeline;
+
+        DispatcherRequestWrapper(HttpServletRequest request, ManagedServletPipeline servletPipeline) {
+            super(request);
+            this.servletPipeline = servletPipeline;
+        }
+
+        void reset(HttpServletRequest request, ManagedServletPipeline servletPipeline) {
+            setRequest(request);
+            this.servletPipeline = servletPipeline;
+        }
+
+        @Override
+        public RequestDispatcher getRequestDispatcher(String path) {
+            final RequestDispatcher dispatcher = servletPipeline.getRequestDispatcher(path);
+
+            return (null != dispatcher) ? dispatcher : super.getRequestDispatcher(path);
+        }
+    }
+}
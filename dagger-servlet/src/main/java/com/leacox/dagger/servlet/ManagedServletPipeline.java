@@ -17,6 +17,10 @@
 
 package com.leacox.dagger.servlet;
 
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import dagger.ObjectGraph;
@@ -32,7 +36,10 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -45,11 +52,40 @@ import static com.google.common.base.Preconditions.checkState;
  */
 @Singleton
 class ManagedServletPipeline {
+    static final int REQUEST_DISPATCHER_CACHE_SIZE = 1024;
+
     private final ServletDefinition[] servletDefinitions;
+    private final UriPatternRouter router;
+    private final PipelineMetrics metrics;
+
+    // Request dispatchers by dispatch path, absent if no servlet is mapped to the path
+    private final Cache<String, Optional<RequestDispatcher>> requestDispatchers = CacheBuilder.newBuilder()
+            .maximumSize(REQUEST_DISPATCHER_CACHE_SIZE)
+            .build();
 
-    @Inject
     ManagedServletPipeline(ServletDefinition[] servletDefinitions) {
+        this(servletDefinitions, PipelineOptions.DEFAULT);
+    }
+
+    @Inject
+    ManagedServletPipeline(ServletDefinition[] servletDefinitions, PipelineOptions pipelineOptions) {
         this.servletDefinitions = servletDefinitions;
+        this.router = UriPatternRouter.compile(patternMatchers(servletDefinitions),
+                pipelineOptions.combineRegexPatterns());
+        this.metrics = pipelineOptions.metrics();
+
+        for (ServletDefinition servletDefinition : servletDefinitions) {
+            servletDefinition.setMetrics(metrics);
+        }
+    }
+
+    private static UriPatternMatcher[] patternMatchers(ServletDefinition[] servletDefinitions) {
+        UriPatternMatcher[] patternMatchers = new UriPatternMatcher[servletDefinitions.length];
+        for (int i = 0; i < servletDefinitions.length; i++) {
+            patternMatchers[i] = servletDefinitions[i].getPatternMatcher();
+        }
+
+        return patternMatchers;
     }
 
     boolean hasServletsMapped() {
@@ -57,96 +93,136 @@ class ManagedServletPipeline {
     }
 
     public void init(ServletContext servletContext, ObjectGraph objectGraph) throws ServletException {
-        Set<HttpServlet> initializedSoFar
-                = Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap());
+        init(servletContext, objectGraph, Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()),
+                Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()));
+    }
 
+    /**
+     * Initializes every servlet that is not in {@code initializedSoFar} yet, and adds it to the set. The servlets
+     * initialized by this call are also added to {@code initialized}.
+     */
+    void init(ServletContext servletContext, ObjectGraph objectGraph, Set<HttpServlet> initializedSoFar,
+              Set<HttpServlet> initialized) throws ServletException {
         for (ServletDefinition servletDefinition : servletDefinitions) {
-            servletDefinition.init(servletContext, objectGraph, initializedSoFar);
+            if (servletDefinition.init(servletContext, objectGraph, initializedSoFar)) {
+                initialized.add(servletDefinition.getServlet());
+            }
         }
     }
 
+    /**
+     * Resolves every servlet in order, and returns an initializer for each distinct servlet instance, for
+     * initializing them in parallel.
+     */
+    List<Callable<Void>> initializers(ServletContext servletContext, ObjectGraph objectGraph) {
+        return initializers(servletContext, objectGraph,
+                Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()),
+                Collections.synchronizedSet(Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap())));
+    }
+
+    /**
+     * Same as {@link #initializers(ServletContext, ObjectGraph)}, but skips the servlets in {@code servletsSoFar}, and
+     * adds the others to the set. Each servlet is added to {@code initialized} once its initializer completed, so the
+     * set must be thread safe.
+     */
+    List<Callable<Void>> initializers(final ServletContext servletContext, ObjectGraph objectGraph,
+                                      Set<HttpServlet> servletsSoFar, final Set<HttpServlet> initialized) {
+        List<Callable<Void>> initializers = Lists.newArrayList();
+
+        for (final ServletDefinition servletDefinition : servletDefinitions) {
+            final HttpServlet servlet = servletDefinition.resolve(objectGraph);
+            if (servletsSoFar.add(servlet)) {
+                initializers.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws ServletException {
+                        servletDefinition.initialize(servletContext);
+                        initialized.add(servlet);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        return initializers;
+    }
+
     public boolean service(ServletRequest request, ServletResponse response)
             throws IOException, ServletException {
-        // Stop at the first matching servlet and service.
-        for (ServletDefinition servletDefinition : servletDefinitions) {
-            if (servletDefinition.service(request, response)) {
-                return true;
-            }
+        if (!hasServletsMapped()) {
+            return false;
+        }
+
+        // Find the first matching servlet in one pass over the compiled patterns and service.
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String path = DispatchArena.contextRelativePath(httpRequest);
+        int index = router.firstMatch(path);
+        if (index == UriPatternRouter.NO_MATCH) {
+            // There was no match...
+            metrics.servletNotMatched();
+            return false;
         }
 
-        // There was no match...
-        return false;
+        servletDefinitions[index].doServiceLimited(request, response);
+        return true;
+    }
+
+    /**
+     * @return whether a servlet is mapped to the path of the given request.
+     */
+    boolean hasServletFor(HttpServletRequest request) {
+        return hasServletsMapped()
+                && router.firstMatch(DispatchArena.contextRelativePath(request)) != UriPatternRouter.NO_MATCH;
     }
 
     public void destroy() {
-        Set<HttpServlet> destroyedSoFar
-                = Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap());
+        destroy(Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()));
+    }
+
+    /**
+     * Destroys every servlet that is not in {@code destroyedSoFar} yet, and adds it to the set.
+     */
+    void destroy(Set<HttpServlet> destroyedSoFar) {
         for (ServletDefinition servletDefinition : servletDefinitions) {
             servletDefinition.destroy(destroyedSoFar);
         }
     }
 
+    /**
+     * Adds the servlet instances resolved so far to {@code servlets}.
+     */
+    void collectServlets(Set<HttpServlet> servlets) {
+        for (ServletDefinition servletDefinition : servletDefinitions) {
+            HttpServlet servlet = servletDefinition.getServlet();
+            if (servlet != null) {
+                servlets.add(servlet);
+            }
+        }
+    }
+
     /**
      * @return Returns a request dispatcher wrapped with a servlet mapped to
      * the given path or null if no mapping was found.
      */
     RequestDispatcher getRequestDispatcher(String path) {
-        final String newRequestUri = path;
+        // The query string is not part of the path the servlets are mapped to, nor of the forwarded request URI.
+        int queryStart = path.indexOf('?');
+        String requestUri = (queryStart < 0) ? path : path.substring(0, queryStart);
 
-        // TODO(dhanji): check servlet spec to see if the following is legal or not.
-        // Need to strip query string if requested...
-
-        for (final ServletDefinition servletDefinition : servletDefinitions) {
-            if (servletDefinition.shouldServe(path)) {
-                return new RequestDispatcher() {
-                    @Override
-                    public void forward(ServletRequest servletRequest, ServletResponse servletResponse)
-                            throws ServletException, IOException {
-                        checkState(!servletResponse.isCommitted(),
-                                "Response has been committed--you can only call forward before"
-                                        + " committing the response (hint: don't flush buffers)");
-
-                        // clear buffer before forwarding
-                        servletResponse.resetBuffer();
-
-                        ServletRequest requestToProcess;
-                        if (servletRequest instanceof HttpServletRequest) {
-                            requestToProcess = new RequestDispatcherRequestWrapper(servletRequest, newRequestUri);
-                        } else {
-                            // This should never happen, but instead of throwing an exception
-                            // we will allow a happy case pass thru for maximum tolerance to
-                            // legacy (and internal) code.
-                            requestToProcess = servletRequest;
-                        }
-
-                        servletRequest.setAttribute(REQUEST_DISPATCHER_REQUEST, Boolean.TRUE);
-
-                        // now dispatch to the servlet
-                        try {
-                            servletDefinition.doService(requestToProcess, servletResponse);
-                        } finally {
-                            servletRequest.removeAttribute(REQUEST_DISPATCHER_REQUEST);
-                        }
-                    }
-
-                    @Override
-                    public void include(ServletRequest servletRequest, ServletResponse servletResponse)
-                            throws ServletException, IOException {
-                        servletRequest.setAttribute(REQUEST_DISPATCHER_REQUEST, Boolean.TRUE);
-
-                        // route to the target servlet
-                        try {
-                            servletDefinition.doService(servletRequest, servletResponse);
-                        } finally {
-                            servletRequest.removeAttribute(REQUEST_DISPATCHER_REQUEST);
-                        }
-                    }
-                };
+        Optional<RequestDispatcher> dispatcher = requestDispatchers.getIfPresent(requestUri);
+        if (dispatcher == null) {
+            int index = router.firstMatch(requestUri);
+            if (index != UriPatternRouter.NO_MATCH) {
+                dispatcher = Optional.<RequestDispatcher>of(
+                        new ManagedRequestDispatcher(servletDefinitions[index], requestUri));
+            } else {
+                //otherwise, can't process
+                dispatcher = Optional.absent();
             }
+
+            requestDispatchers.put(requestUri, dispatcher);
         }
 
-        //otherwise, can't process
-        return null;
+        return dispatcher.orNull();
     }
 
     /**
@@ -156,6 +232,63 @@ class ManagedServletPipeline {
      */
     public static final String REQUEST_DISPATCHER_REQUEST = "javax.servlet.forward.servlet_path";
 
+    /**
+     * Dispatches to a managed servlet. Holds no state of its own, so one instance serves every dispatch to the same
+     * path.
+     */
+    private static class ManagedRequestDispatcher implements RequestDispatcher {
+        private final ServletDefinition servletDefinition;
+        private final String newRequestUri;
+
+        ManagedRequestDispatcher(ServletDefinition servletDefinition, String newRequestUri) {
+            this.servletDefinition = servletDefinition;
+            this.newRequestUri = newRequestUri;
+        }
+
+        @Override
+        public void forward(ServletRequest servletRequest, ServletResponse servletResponse)
+                throws ServletException, IOException {
+            checkState(!servletResponse.isCommitted(),
+                    "Response has been committed--you can only call forward before"
+                            + " committing the response (hint: don't flush buffers)");
+
+            // clear buffer before forwarding
+            servletResponse.resetBuffer();
+
+            ServletRequest requestToProcess;
+            if (servletRequest instanceof HttpServletRequest) {
+                requestToProcess = new RequestDispatcherRequestWrapper(servletRequest, newRequestUri);
+            } else {
+                // This should never happen, but instead of throwing an exception
+                // we will allow a happy case pass thru for maximum tolerance to
+                // legacy (and internal) code.
+                requestToProcess = servletRequest;
+            }
+
+            servletRequest.setAttribute(REQUEST_DISPATCHER_REQUEST, Boolean.TRUE);
+
+            // now dispatch to the servlet
+            try {
+                servletDefinition.doService(requestToProcess, servletResponse);
+            } finally {
+                servletRequest.removeAttribute(REQUEST_DISPATCHER_REQUEST);
+            }
+        }
+
+        @Override
+        public void include(ServletRequest servletRequest, ServletResponse servletResponse)
+                throws ServletException, IOException {
+            servletRequest.setAttribute(REQUEST_DISPATCHER_REQUEST, Boolean.TRUE);
+
+            // route to the target servlet
+            try {
+                servletDefinition.doService(servletRequest, servletResponse);
+            } finally {
+                servletRequest.removeAttribute(REQUEST_DISPATCHER_REQUEST);
+            }
+        }
+    }
+
     private static class RequestDispatcherRequestWrapper extends HttpServletRequestWrapper {
         private final String newRequestUri;
 
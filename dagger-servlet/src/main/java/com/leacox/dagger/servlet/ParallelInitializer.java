@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.servlet.ServletException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the initialization of the managed filters and servlets on a bounded pool of threads, for pipelines configured
+ * with {@link DaggerServletContextListener#initializePipelineInParallel()}. The pool is only used for one pipeline
+ * initialization and is shut down afterwards.
+ *
+ * @author John Leacox
+ */
+final class ParallelInitializer {
+    private ParallelInitializer() {}
+
+    /**
+     * Runs the given initializers, at most one per available processor at a time, and waits for all of them. At least
+     * two run at a time, since initialization often waits on I/O.
+     *
+     * @throws ServletException the first failure in list order, after all initializers have finished.
+     */
+    static void initialize(List<Callable<Void>> initializers) throws ServletException {
+        if (initializers.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.min(initializers.size(), Math.max(2, Runtime.getRuntime().availableProcessors()));
+        // The threads inherit the context class loader of the thread initializing the pipeline.
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("dagger-servlet-init-%d").setDaemon(true).build());
+        try {
+            List<Future<Void>> futures = executor.invokeAll(initializers);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw rethrow(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException("Interrupted while initializing the filter pipeline", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ServletException rethrow(Throwable cause) throws ServletException {
+        if (cause instanceof ServletException) {
+            throw (ServletException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+
+        throw new ServletException(cause);
+    }
+}
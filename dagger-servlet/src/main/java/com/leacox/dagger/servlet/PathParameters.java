@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.AbstractMap;
+import java.util.Set;
+
+import static com.leacox.dagger.servlet.UriPatternType.TemplateUriPatternMatcher;
+
+/**
+ * The variables captured from a request path by a path template, see {@link PathParams}. Dispatching to a servlet
+ * mapped to a path template only records the template and the path in request attributes, so the map is only created
+ * when {@code @PathParams} is injected. Only the offsets of the variables in the path are captured then, and the
+ * value of a variable is only copied out of the path when it is read.
+ * <p/>
+ * The map is a request attribute, so it may be read from other threads that continue the request. The offsets are
+ * final, and a value copied by two threads at once is the same string either way.
+ *
+ * @author John Leacox
+ */
+final class PathParameters extends AbstractMap<String, String> {
+    // The template and the context relative path of the dispatch in progress to a path template servlet
+    static final String TEMPLATE_ATTRIBUTE = PathParameters.class.getName() + ".template";
+    static final String PATH_ATTRIBUTE = PathParameters.class.getName() + ".path";
+
+    private final TemplateUriPatternMatcher template;
+    private final String path;
+
+    // Start and end offset of each variable in the path
+    private final int[] offsets;
+    private final boolean matched;
+    // Each value once it was copied out of the path
+    private final String[] values;
+
+    PathParameters(TemplateUriPatternMatcher template, String path) {
+        this.template = template;
+        this.path = path;
+        this.offsets = new int[2 * template.getNames().length];
+        this.matched = template.capture(path, offsets);
+        this.values = new String[template.getNames().length];
+    }
+
+    /**
+     * @return the variables of the path template the given request is being serviced with, or null if it is not
+     * being serviced by a servlet mapped to a path template.
+     */
+    static PathParameters of(HttpServletRequest request) {
+        Object template = request.getAttribute(TEMPLATE_ATTRIBUTE);
+        if (template == null) {
+            return null;
+        }
+
+        return new PathParameters((TemplateUriPatternMatcher) template, (String) request.getAttribute(PATH_ATTRIBUTE));
+    }
+
+    @Override
+    public String get(Object name) {
+        int index = template.indexOf(name);
+        if (index < 0 || !matched) {
+            return null;
+        }
+
+        String value = values[index];
+        if (value == null) {
+            value = path.substring(offsets[2 * index], offsets[2 * index + 1]);
+            values[index] = value;
+        }
+
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return template.indexOf(name) >= 0 && matched;
+    }
+
+    @Override
+    public int size() {
+        return matched ? template.getNames().length : 0;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        ImmutableMap.Builder<String, String> entries = ImmutableMap.builder();
+        for (String name : template.getNames()) {
+            String value = get(name);
+            if (value != null) {
+                entries.put(name, value);
+            }
+        }
+
+        return entries.build().entrySet();
+    }
+}
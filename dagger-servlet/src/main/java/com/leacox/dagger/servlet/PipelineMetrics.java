@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import javax.servlet.Filter;
+import javax.servlet.http.HttpServlet;
+import java.lang.annotation.Annotation;
+
+/**
+ * Listens to the dispatch of requests through the managed filters and servlets, and to the creation of scoped
+ * objects. Return an implementation from {@link DaggerServletContextListener#getPipelineMetrics()} to enable it, and
+ * inject it from {@link ServletModule} to read it back. {@link HistogramPipelineMetrics} keeps latency histograms.
+ * <p/>
+ * By default {@link #NONE} is used, and the pipeline does not even read the clock. Implementations are called from
+ * request threads concurrently and must be thread safe, and should not block.
+ *
+ * @author John Leacox
+ */
+public interface PipelineMetrics {
+    /**
+     * Ignores all events.
+     */
+    PipelineMetrics NONE = new PipelineMetrics() {
+        @Override
+        public void dispatchCompleted(long durationNanos) {
+        }
+
+        @Override
+        public void filterCompleted(Class<? extends Filter> filterClass, String pattern, long durationNanos) {
+        }
+
+        @Override
+        public void servletCompleted(Class<? extends HttpServlet> servletClass, String pattern, long durationNanos) {
+        }
+
+        @Override
+        public void servletNotMatched() {
+        }
+
+        @Override
+        public void servletRejected(Class<? extends HttpServlet> servletClass, String pattern, int limit) {
+        }
+
+        @Override
+        public void concurrencyLimitChanged(Class<? extends HttpServlet> servletClass, String pattern, int limit) {
+        }
+
+        @Override
+        public void scopedInstanceCreated(Class<? extends Annotation> scope, Class<?> type) {
+        }
+
+        @Override
+        public String toString() {
+            return "PipelineMetrics.NONE";
+        }
+    };
+
+    /**
+     * Called after a request was dispatched through the managed filters and servlets, including the web.xml filter
+     * chain the request continued to.
+     */
+    void dispatchCompleted(long durationNanos);
+
+    /**
+     * Called after a managed filter returned. The duration includes the rest of the filter chain and the servlet.
+     */
+    void filterCompleted(Class<? extends Filter> filterClass, String pattern, long durationNanos);
+
+    /**
+     * Called after a managed servlet serviced a request.
+     */
+    void servletCompleted(Class<? extends HttpServlet> servletClass, String pattern, long durationNanos);
+
+    /**
+     * Called when no managed servlet matched a request, so it continues down the web.xml filter chain.
+     */
+    void servletNotMatched();
+
+    /**
+     * Called when a managed servlet rejected a request because it was over the servlet's {@link ConcurrencyLimit}.
+     *
+     * @param limit the limit the request was over
+     */
+    void servletRejected(Class<? extends HttpServlet> servletClass, String pattern, int limit);
+
+    /**
+     * Called when the adaptive {@link ConcurrencyLimit} of a managed servlet changed after a request completed.
+     *
+     * @param limit the new limit
+     */
+    void concurrencyLimitChanged(Class<? extends HttpServlet> servletClass, String pattern, int limit);
+
+    /**
+     * Called when a scoped object was created, the first time it was needed in the scope.
+     *
+     * @param scope the scope annotation, such as {@link RequestScoped} or {@link SessionScoped}
+     * @param type  the type of the created object
+     */
+    void scopedInstanceCreated(Class<? extends Annotation> scope, Class<?> type);
+}
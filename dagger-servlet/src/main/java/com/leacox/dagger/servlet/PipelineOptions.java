@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+/**
+ * Opt-in settings for how the filter and servlet pipelines dispatch requests. Set from
+ * {@link DaggerServletContextListener}.
+ *
+ * @author John Leacox
+ */
+final class PipelineOptions {
+    static final PipelineOptions DEFAULT = new PipelineOptions(false, false);
+
+    private final boolean combineRegexPatterns;
+    private final boolean reuseDispatchObjects;
+    private final PipelineMetrics metrics;
+    private final boolean initializeInParallel;
+    private final boolean replaceable;
+
+    PipelineOptions(boolean combineRegexPatterns, boolean reuseDispatchObjects) {
+        this(combineRegexPatterns, reuseDispatchObjects, PipelineMetrics.NONE);
+    }
+
+    PipelineOptions(boolean combineRegexPatterns, boolean reuseDispatchObjects, PipelineMetrics metrics) {
+        this(combineRegexPatterns, reuseDispatchObjects, metrics, false);
+    }
+
+    PipelineOptions(boolean combineRegexPatterns, boolean reuseDispatchObjects, PipelineMetrics metrics,
+                    boolean initializeInParallel) {
+        this(combineRegexPatterns, reuseDispatchObjects, metrics, initializeInParallel, false);
+    }
+
+    PipelineOptions(boolean combineRegexPatterns, boolean reuseDispatchObjects, PipelineMetrics metrics,
+                    boolean initializeInParallel, boolean replaceable) {
+        this.combineRegexPatterns = combineRegexPatterns;
+        this.reuseDispatchObjects = reuseDispatchObjects;
+        this.metrics = metrics;
+        this.initializeInParallel = initializeInParallel;
+        this.replaceable = replaceable;
+    }
+
+    /**
+     * Whether the regex patterns of a pipeline are combined into a single regex, instead of being tested one at a
+     * time.
+     */
+    boolean combineRegexPatterns() {
+        return combineRegexPatterns;
+    }
+
+    /**
+     * Whether the objects of each dispatch are kept per thread and reused by the next request, see
+     * {@link DispatchArena}.
+     */
+    boolean reuseDispatchObjects() {
+        return reuseDispatchObjects;
+    }
+
+    /**
+     * The listener the pipelines and scopes report to, {@link PipelineMetrics#NONE} unless metrics were enabled.
+     */
+    PipelineMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Whether the managed filters and servlets are initialized in parallel, see {@link ParallelInitializer}.
+     */
+    boolean initializeInParallel() {
+        return initializeInParallel;
+    }
+
+    /**
+     * Whether the filter pipeline counts its dispatches, so that its filters and servlets can be replaced while it is
+     * in service, see {@link ManagedFilterPipeline#replace}.
+     */
+    boolean replaceable() {
+        return replaceable;
+    }
+}
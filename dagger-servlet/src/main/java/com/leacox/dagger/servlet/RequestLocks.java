@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.util.concurrent.Striped;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Locks for lazily creating per request or per session state, such as the request scope store, only once.
+ * <p/>
+ * {@code java.util.concurrent} locks are used instead of synchronizing on the request, since a virtual thread that
+ * blocks inside a {@code synchronized} block pins its carrier thread. The locks are striped by request, so requests
+ * only contend when they hash to the same stripe, and only while the state is first created.
+ *
+ * @author John Leacox
+ */
+final class RequestLocks {
+    private static final Striped<Lock> LOCKS = Striped.lock(64);
+
+    private RequestLocks() {}
+
+    /**
+     * @param key the request, or a key identifying a session such as its id.
+     */
+    static Lock get(Object key) {
+        return LOCKS.get(key);
+    }
+}
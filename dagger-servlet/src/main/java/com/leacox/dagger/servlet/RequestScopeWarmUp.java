@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.Maps;
+import dagger.ScopingObjectGraph;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Resolves every request scoped type once at startup, so that loading their classes, running their static
+ * initializers and looking up their generated Dagger adapters is done before the first request instead of during it.
+ * <p/>
+ * The bindings themselves are still linked by every request, since each request creates its own scoped graph with
+ * {@code plus}, and a linked Dagger graph cannot be shared between requests. The graph linked by the warm up is
+ * discarded.
+ * <p/>
+ * The types are resolved inside a {@link ServletScopes#scopeRequest} scope that is thrown away afterwards. The
+ * request, response and session are seeded as {@code null}, since there is no HTTP request to provide them.
+ *
+ * @author John Leacox
+ */
+final class RequestScopeWarmUp {
+    private RequestScopeWarmUp() {
+    }
+
+    /**
+     * Resolves the request scoped types of the given graph. Types in the seed map are not resolved, their seeded
+     * values are used instead wherever they are injected.
+     */
+    static WarmUpReport warmUp(final ScopingObjectGraph objectGraph, Map<Class<?>, Object> seeds) {
+        final Map<Class<?>, Object> seedMap = Maps.newHashMap();
+        seedMap.put(ServletRequest.class, null);
+        seedMap.put(ServletResponse.class, null);
+        seedMap.put(HttpServletRequest.class, null);
+        seedMap.put(HttpServletResponse.class, null);
+        seedMap.put(HttpSession.class, null);
+        seedMap.putAll(seeds);
+
+        final Map<Class<?>, Long> nanos = Maps.newLinkedHashMap();
+        final Map<Class<?>, RuntimeException> failures = Maps.newLinkedHashMap();
+        Callable<Void> warmUp = ServletScopes.scopeRequest(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (Class<?> type : objectGraph.getScopedTypes(RequestScoped.class)) {
+                    if (seedMap.containsKey(type)) {
+                        continue;
+                    }
+
+                    long start = System.nanoTime();
+                    try {
+                        objectGraph.get(type);
+                    } catch (RuntimeException e) {
+                        failures.put(type, e);
+                    }
+                    nanos.put(type, System.nanoTime() - start);
+                }
+
+                return null;
+            }
+        }, seedMap);
+
+        try {
+            warmUp.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // The warm up callable does not throw checked exceptions.
+            throw new IllegalStateException(e);
+        }
+
+        return new WarmUpReport(nanos, failures);
+    }
+}
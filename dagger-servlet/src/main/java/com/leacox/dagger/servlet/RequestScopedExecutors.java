@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decorates executor services so that tasks submitted during an HTTP request run in a continuation of that request,
+ * the same as tasks wrapped with {@link ServletScopes#continueRequest}.
+ * <p/>
+ * Each task continues the request in a request scope of its own, which starts out empty, the same as with
+ * {@link ServletScopes#continueRequest}. Tasks of the same request therefore do not share request scoped objects,
+ * which are usually not thread safe, and request scoped objects of the original request are not transported either.
+ * Tasks submitted by a task continue the original request. Tasks submitted outside of an HTTP request run unscoped.
+ * <p/>
+ * Provided by {@link ServletModule}:
+ * <pre>
+ * {@literal @}Inject
+ * MyResource(RequestScopedExecutors requestScopedExecutors) {
+ *     this.executor = requestScopedExecutors.decorate(Executors.newFixedThreadPool(16));
+ * }
+ * </pre>
+ *
+ * @author John Leacox
+ */
+@Singleton
+public class RequestScopedExecutors {
+    @Inject
+    RequestScopedExecutors() {
+    }
+
+    /**
+     * Returns an executor service that runs its tasks on the given executor service, in a continuation of the HTTP
+     * request they were submitted from. Shutting down the returned executor service shuts down the given one.
+     */
+    public ExecutorService decorate(ExecutorService executorService) {
+        return new RequestScopedExecutorService(executorService);
+    }
+
+    /**
+     * Returns a new continued request context for a task submitted from the current request, or null if no HTTP
+     * request is in progress.
+     */
+    private static DaggerFilter.Context newContinuedContext() {
+        DaggerFilter.Context context = DaggerFilter.localContext.get();
+        if (context == null) {
+            return null;
+        }
+
+        HttpServletRequest request = context.getRequest();
+        if (request instanceof ContinuingHttpServletRequest) {
+            // Submitted by a task, continue the original request instead of wrapping its continuation again.
+            request = (HttpServletRequest) ((ContinuingHttpServletRequest) request).getRequest();
+        }
+
+        return new DaggerFilter.Context(
+                ServletScopes.newContinuingRequest(request, Collections.<Class<?>, Object>emptyMap()), null);
+    }
+
+    private static class RequestScopedExecutorService extends AbstractExecutorService {
+        private final ExecutorService executorService;
+
+        RequestScopedExecutorService(ExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            final DaggerFilter.Context continuedContext = newContinuedContext();
+            if (continuedContext == null) {
+                executorService.execute(command);
+                return;
+            }
+
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        DaggerFilter.localContext.call(continuedContext, Executors.callable(command));
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        // Runnables do not throw checked exceptions, this is only for a misbehaving carrier.
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            executorService.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executorService.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executorService.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executorService.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executorService.awaitTermination(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Carries a value of the servlet scopes, such as the HTTP request in progress, to the code running inside the scope.
+ * <p/>
+ * Values are bound for the duration of a call, the same way as {@code java.lang.ScopedValue}, rather than being set
+ * and cleared. By default values are carried in thread locals. Another implementation, for example one built on
+ * scoped values, can be used by registering a {@link Factory} with {@link java.util.ServiceLoader}, in a
+ * {@code META-INF/services/com.leacox.dagger.servlet.ScopeCarrier$Factory} file.
+ *
+ * @author John Leacox
+ */
+public interface ScopeCarrier<T> {
+    /**
+     * Returns the value bound to the current call, or null if no value is bound.
+     */
+    T get();
+
+    /**
+     * Calls the callable with the given value bound. The previously bound value, if any, is bound again once the
+     * callable returns.
+     */
+    <V> V call(T value, Callable<V> callable) throws Exception;
+
+    /**
+     * Unbinds any value left bound to the current thread outside of a call, for example by a test.
+     */
+    void remove();
+
+    /**
+     * Creates the scope carriers used by dagger-servlet.
+     */
+    interface Factory {
+        <T> ScopeCarrier<T> create();
+    }
+}
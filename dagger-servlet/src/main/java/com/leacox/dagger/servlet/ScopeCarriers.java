@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Creates {@link ScopeCarrier}s, using the first {@link ScopeCarrier.Factory} registered with
+ * {@link ServiceLoader}, or thread locals if there is none.
+ *
+ * @author John Leacox
+ */
+final class ScopeCarriers {
+    private static final ScopeCarrier.Factory FACTORY = loadFactory();
+
+    private ScopeCarriers() {}
+
+    static <T> ScopeCarrier<T> create() {
+        if (FACTORY == null) {
+            return new ThreadLocalScopeCarrier<T>();
+        }
+
+        return FACTORY.create();
+    }
+
+    private static ScopeCarrier.Factory loadFactory() {
+        Iterator<ScopeCarrier.Factory> factories =
+                ServiceLoader.load(ScopeCarrier.Factory.class, ScopeCarrier.class.getClassLoader()).iterator();
+
+        return factories.hasNext() ? factories.next() : null;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the scoped objects for a single instance of a scope, such as one HTTP request. A store is kept as a single
+ * attribute of the request instead of one attribute per scoped object, so lookups do not have to go through the
+ * container's attribute map or lock the request. Scoped objects are keyed by their type, so a lookup does not need to
+ * build a key.
+ * <p/>
+ * Values are never null, {@link ServletScopes.NullObject#INSTANCE} is stored for null scoped objects.
+ *
+ * @author John Leacox
+ */
+final class ScopeStore {
+    private final ConcurrentMap<Class<?>, Object> scopedObjects = new ConcurrentHashMap<Class<?>, Object>();
+
+    /**
+     * @return the scoped object stored for the given type, or null if there is none yet.
+     */
+    Object get(Class<?> type) {
+        return scopedObjects.get(type);
+    }
+
+    /**
+     * Stores the value unless another value was already stored for the type.
+     *
+     * @return the value stored for the type once this call returns, either the given value or the one that was
+     * already present.
+     */
+    Object putIfAbsent(Class<?> type, Object value) {
+        Object existing = scopedObjects.putIfAbsent(type, value);
+        return existing != null ? existing : value;
+    }
+
+    /**
+     * Stores the value unless another value was already stored for the type, the same as
+     * {@link ConcurrentMap#putIfAbsent}.
+     *
+     * @return the value that was already present, or null if the given value was stored.
+     */
+    Object existingOrPut(Class<?> type, Object value) {
+        return scopedObjects.putIfAbsent(type, value);
+    }
+
+    /**
+     * Stores the value, replacing any existing value. Used to seed a store before it is shared.
+     */
+    void put(Class<?> type, Object value) {
+        scopedObjects.put(type, value);
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.leacox.dagger.servlet.scope.OutOfScopeException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+/**
+ * An {@link AsyncContext} that carries the request scope of the request it was started for.
+ * <p/>
+ * Runnables passed to {@link #start(Runnable)} and the callbacks of listeners added with
+ * {@link #addListener(AsyncListener)} run with the request in scope, so {@code @RequestScoped} objects of the request
+ * can still be injected after the request thread has returned to the container:
+ * <pre>
+ * final ScopedAsyncContext asyncContext = ScopedAsyncContext.startAsync();
+ * asyncContext.start(new Runnable() {
+ *     public void run() {
+ *         objectGraph.get(MyRequestScopedObject.class).poll();
+ *         asyncContext.complete();
+ *     }
+ * });
+ * </pre>
+ * Work that is run on any other thread can be wrapped with {@link #inScope(Runnable)}.
+ * <p/>
+ * {@link DaggerFilter} must be registered as async supported for requests to be put into asynchronous mode.
+ *
+ * @author John Leacox
+ */
+public class ScopedAsyncContext implements AsyncContext {
+    private final AsyncContext asyncContext;
+    private final DaggerFilter.Context context;
+
+    ScopedAsyncContext(AsyncContext asyncContext, DaggerFilter.Context context) {
+        this.asyncContext = asyncContext;
+        this.context = context;
+    }
+
+    /**
+     * Puts the HTTP request in progress into asynchronous mode, carrying its request scope.
+     *
+     * @throws OutOfScopeException if this method is called outside of an HTTP request.
+     */
+    public static ScopedAsyncContext startAsync() {
+        DaggerFilter.Context context = getCurrentContext();
+        HttpServletRequest request = context.getRequest();
+        HttpServletResponse response = context.getResponse();
+
+        AsyncContext asyncContext = (response != null) ? request.startAsync(request, response) : request.startAsync();
+        return new ScopedAsyncContext(asyncContext, context);
+    }
+
+    /**
+     * Wraps an async context that was already started for the HTTP request in progress, carrying its request scope.
+     *
+     * @throws OutOfScopeException if this method is called outside of an HTTP request.
+     */
+    public static ScopedAsyncContext wrap(AsyncContext asyncContext) {
+        if (asyncContext instanceof ScopedAsyncContext) {
+            return (ScopedAsyncContext) asyncContext;
+        }
+
+        return new ScopedAsyncContext(asyncContext, getCurrentContext());
+    }
+
+    private static DaggerFilter.Context getCurrentContext() {
+        DaggerFilter.Context context = DaggerFilter.localContext.get();
+        if (context == null) {
+            throw new OutOfScopeException("Cannot start an asynchronous request scope. Either we are not currently "
+                    + "inside an HTTP Servlet request, or you may have forgotten to apply "
+                    + DaggerFilter.class.getName() + " as a servlet filter for this request.");
+        }
+
+        // The context is kept for the asynchronous work, so it must not be reused for another request.
+        DispatchArena.markEscaped();
+        return context;
+    }
+
+    /**
+     * Returns a runnable that runs the given runnable with the request of this async context in scope.
+     */
+    public Runnable inScope(final Runnable runnable) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DaggerFilter.localContext.call(context, Executors.callable(runnable));
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // Runnables do not throw checked exceptions, this is only for a misbehaving carrier.
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private interface ListenerCall {
+        void call(AsyncEvent event) throws IOException;
+    }
+
+    private void callInScope(final ListenerCall listenerCall, final AsyncEvent event) throws IOException {
+        try {
+            DaggerFilter.localContext.call(context, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    listenerCall.call(event);
+                    return null;
+                }
+            });
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void start(Runnable runnable) {
+        asyncContext.start(inScope(runnable));
+    }
+
+    @Override
+    public void addListener(AsyncListener listener) {
+        asyncContext.addListener(new ScopedAsyncListener(listener));
+    }
+
+    @Override
+    public void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {
+        asyncContext.addListener(new ScopedAsyncListener(listener), servletRequest, servletResponse);
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException {
+        return asyncContext.createListener(clazz);
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+        return asyncContext.getRequest();
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+        return asyncContext.getResponse();
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+        return asyncContext.hasOriginalRequestAndResponse();
+    }
+
+    @Override
+    public void dispatch() {
+        asyncContext.dispatch();
+    }
+
+    @Override
+    public void dispatch(String path) {
+        asyncContext.dispatch(path);
+    }
+
+    @Override
+    public void dispatch(ServletContext context, String path) {
+        asyncContext.dispatch(context, path);
+    }
+
+    @Override
+    public void complete() {
+        asyncContext.complete();
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        asyncContext.setTimeout(timeout);
+    }
+
+    @Override
+    public long getTimeout() {
+        return asyncContext.getTimeout();
+    }
+
+    /**
+     * Runs the callbacks of a listener with the request in scope.
+     */
+    private class ScopedAsyncListener implements AsyncListener {
+        private final AsyncListener listener;
+
+        ScopedAsyncListener(AsyncListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            callInScope(new ListenerCall() {
+                @Override
+                public void call(AsyncEvent event) throws IOException {
+                    listener.onComplete(event);
+                }
+            }, event);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            callInScope(new ListenerCall() {
+                @Override
+                public void call(AsyncEvent event) throws IOException {
+                    listener.onTimeout(event);
+                }
+            }, event);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            callInScope(new ListenerCall() {
+                @Override
+                public void call(AsyncEvent event) throws IOException {
+                    listener.onError(event);
+                }
+            }, event);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            callInScope(new ListenerCall() {
+                @Override
+                public void call(AsyncEvent event) throws IOException {
+                    listener.onStartAsync(event);
+                }
+            }, event);
+        }
+    }
+}
@@ -21,6 +21,8 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.Maps;
 import dagger.ObjectGraph;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -28,15 +30,16 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
-import static com.leacox.dagger.servlet.ManagedServletPipeline.REQUEST_DISPATCHER_REQUEST;
+import static com.leacox.dagger.servlet.UriPatternType.TemplateUriPatternMatcher;
 
 /**
  * An internal representation of a servlet definition mapped to a particular URI pattern. Also
@@ -52,17 +55,33 @@ public class ServletDefinition {
     private final Map<String, String> initParams;
     // set only if this was bound using a servlet instance.
     private final HttpServlet servletInstance;
+    // null if the servlet is not limited
+    private final ConcurrencyLimit concurrencyLimit;
 
     // Always set in init, our servlet is always presumed to be a singleton.
     private final AtomicReference<HttpServlet> httpServlet = new AtomicReference<HttpServlet>();
 
+    // Set by the pipeline before init is called.
+    private PipelineMetrics metrics = PipelineMetrics.NONE;
+
     ServletDefinition(String pattern, Class<? extends HttpServlet> servletClass, UriPatternMatcher patternMatcher,
                       Map<String, String> initParams, HttpServlet servletInstance) {
+        this(pattern, servletClass, patternMatcher, initParams, servletInstance, null);
+    }
+
+    /**
+     * Creates a servlet definition that rejects requests over the given concurrency limit, or is not limited if the
+     * limit is {@code null}.
+     */
+    ServletDefinition(String pattern, Class<? extends HttpServlet> servletClass, UriPatternMatcher patternMatcher,
+                      Map<String, String> initParams, HttpServlet servletInstance,
+                      ConcurrencyLimit concurrencyLimit) {
         this.pattern = pattern;
         this.servletClass = servletClass;
         this.patternMatcher = patternMatcher;
         this.initParams = Collections.unmodifiableMap(Maps.newHashMap(initParams));
         this.servletInstance = servletInstance;
+        this.concurrencyLimit = concurrencyLimit;
     }
 
     public ServletDefinition get() {
@@ -73,8 +92,13 @@ public class ServletDefinition {
         return patternMatcher.matches(uri);
     }
 
-    public void init(final ServletContext servletContext, ObjectGraph objectGraph,
-                     Set<HttpServlet> initializedSoFar) throws ServletException {
+    /**
+     * Initializes the servlet, unless it is in {@code initializedSoFar}, and adds it to the set.
+     *
+     * @return true if the servlet was initialized by this call
+     */
+    public boolean init(final ServletContext servletContext, ObjectGraph objectGraph,
+                        Set<HttpServlet> initializedSoFar) throws ServletException {
         // This absolutely must be a singleton, and so is only initialized once.
         // TODO: There isn't a good way to make sure the class is a singleton. Classes with the @Singleton annotation
         // can be identified, but classes that are singletons via an @Singleton annotated @Provides method won't
@@ -84,6 +108,24 @@ public class ServletDefinition {
 //                    + servletClass + " was not bound in singleton scope.");
 //        }
 
+        HttpServlet httpServlet = resolve(objectGraph);
+
+        if (initializedSoFar.contains(httpServlet)) {
+            return false;
+        }
+
+        initialize(servletContext);
+
+        // Mark as initialized.
+        initializedSoFar.add(httpServlet);
+        return true;
+    }
+
+    /**
+     * Gets the servlet from the object graph, or the bound instance, and keeps it for dispatch without initializing
+     * it.
+     */
+    HttpServlet resolve(ObjectGraph objectGraph) {
         HttpServlet httpServlet;
         if (servletInstance == null) {
             httpServlet = objectGraph.get(servletClass);
@@ -92,12 +134,14 @@ public class ServletDefinition {
         }
         this.httpServlet.set(httpServlet);
 
-        if (initializedSoFar.contains(httpServlet)) {
-            return;
-        }
+        return httpServlet;
+    }
 
-        // Initialize our servlet with the configured context params and servlet context.
-        httpServlet.init(new ServletConfig() {
+    /**
+     * Initializes the resolved servlet with the configured context params and servlet context.
+     */
+    void initialize(final ServletContext servletContext) throws ServletException {
+        httpServlet.get().init(new ServletConfig() {
             @Override
             public String getServletName() {
                 return servletClass.getCanonicalName();
@@ -118,9 +162,6 @@ public class ServletDefinition {
                 return Iterators.asEnumeration(initParams.keySet().iterator());
             }
         });
-
-        // Mark as initialized.
-        initializedSoFar.add(httpServlet);
     }
 
     public void destroy(Set<HttpServlet> destroyedSoFar) {
@@ -168,85 +209,121 @@ public class ServletDefinition {
     }
 
     /**
-     * Utility that delegates to the actual service method of the servlet wrapped with a contextual
-     * request (i.e. with correctly computed path info).
-     * <p/>
-     * We need to suppress deprecation coz we use HttpServletRequestWrapper, which implements
-     * deprecated API for backwards compatibility.
+     * Services a request the servlet pipeline matched to this servlet, within the concurrency limit of the servlet,
+     * if it has one. A request that went asynchronous keeps its place under the limit until it completes.
      */
-    void doService(final ServletRequest servletRequest, ServletResponse servletResponse)
+    void doServiceLimited(ServletRequest servletRequest, ServletResponse servletResponse)
             throws ServletException, IOException {
+        if (concurrencyLimit == null) {
+            doService(servletRequest, servletResponse);
+            return;
+        }
 
-        HttpServletRequest request = new HttpServletRequestWrapper(
-                (HttpServletRequest) servletRequest) {
-            private String path;
-            private boolean pathComputed = false;
-            //must use a boolean on the memo field, because null is a legal value (TODO no, it's not)
+        if (!concurrencyLimit.tryAcquire()) {
+            metrics.servletRejected(servletClass, pattern, concurrencyLimit.getLimit());
+            ((HttpServletResponse) servletResponse).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
 
-            private boolean pathInfoComputed = false;
-            private String pathInfo;
+        long start = System.nanoTime();
+        boolean async = false;
+        try {
+            doService(servletRequest, servletResponse);
 
-            @Override
-            public String getPathInfo() {
-                if (!isPathInfoComputed()) {
-                    int servletPathLength = getServletPath().length();
-                    pathInfo = getRequestURI().substring(getContextPath().length()).replaceAll("[/]{2,}", "/");
-                    pathInfo = pathInfo.length() > servletPathLength ? pathInfo.substring(servletPathLength) : null;
-
-                    // Corner case: when servlet path and request path match exactly (without trailing '/'),
-                    // then pathinfo is null
-                    if ("".equals(pathInfo) && servletPathLength != 0) {
-                        pathInfo = null;
-                    }
-
-                    pathInfoComputed = true;
-                }
-
-                return pathInfo;
+            if (servletRequest.isAsyncStarted()) {
+                servletRequest.getAsyncContext().addListener(new ConcurrencyLimitRelease(start));
+                async = true;
             }
-
-            // NOTE(dhanji): These two are a bit of a hack to help ensure that request dipatcher-sent
-            // requests don't use the same path info that was memoized for the original request.
-            private boolean isPathInfoComputed() {
-                return pathInfoComputed
-                        && !(null != servletRequest.getAttribute(REQUEST_DISPATCHER_REQUEST));
+        } finally {
+            if (!async) {
+                releaseConcurrencyLimit(start);
             }
+        }
+    }
 
-            private boolean isPathComputed() {
-                return pathComputed
-                        && !(null != servletRequest.getAttribute(REQUEST_DISPATCHER_REQUEST));
-            }
+    private void releaseConcurrencyLimit(long start) {
+        if (concurrencyLimit.release(System.nanoTime() - start)) {
+            metrics.concurrencyLimitChanged(servletClass, pattern, concurrencyLimit.getLimit());
+        }
+    }
 
-            @Override
-            public String getServletPath() {
-                return computePath();
-            }
+    /**
+     * Utility that delegates to the actual service method of the servlet wrapped with a contextual
+     * request (i.e. with correctly computed path info). Forwards and includes are serviced here, outside of the
+     * concurrency limit, as they are part of a request that was already admitted.
+     */
+    void doService(ServletRequest servletRequest, ServletResponse servletResponse)
+            throws ServletException, IOException {
+        if (patternMatcher instanceof TemplateUriPatternMatcher) {
+            doServiceWithPathParameters((HttpServletRequest) servletRequest, servletResponse);
+        } else {
+            doServiceWrapped(servletRequest, servletResponse);
+        }
+    }
 
-            @SuppressWarnings("deprecation")
-            @Override
-            public String getPathTranslated() {
-                final String info = getPathInfo();
+    /**
+     * Makes the variables of the path template available to the {@link PathParams} binding while the servlet
+     * services the request. Only the template and the path are recorded, the variables are captured when they are
+     * injected. The variables of an enclosing dispatch are restored afterwards.
+     */
+    private void doServiceWithPathParameters(HttpServletRequest request, ServletResponse servletResponse)
+            throws ServletException, IOException {
+        Object enclosingTemplate = request.getAttribute(PathParameters.TEMPLATE_ATTRIBUTE);
+        Object enclosingPath = request.getAttribute(PathParameters.PATH_ATTRIBUTE);
+        request.setAttribute(PathParameters.TEMPLATE_ATTRIBUTE, patternMatcher);
+        request.setAttribute(PathParameters.PATH_ATTRIBUTE, DispatchArena.contextRelativePath(request));
+        try {
+            doServiceWrapped(request, servletResponse);
+        } finally {
+            restoreAttribute(request, PathParameters.TEMPLATE_ATTRIBUTE, enclosingTemplate);
+            restoreAttribute(request, PathParameters.PATH_ATTRIBUTE, enclosingPath);
+        }
+    }
 
-                return (null == info) ? null : getRealPath(info);
-            }
+    private static void restoreAttribute(HttpServletRequest request, String name, Object enclosing) {
+        if (enclosing != null) {
+            request.setAttribute(name, enclosing);
+        } else {
+            request.removeAttribute(name);
+        }
+    }
 
-            // Memoizer pattern.
-            private String computePath() {
-                if (!isPathComputed()) {
-                    String servletPath = super.getServletPath();
-                    path = patternMatcher.extractPath(servletPath);
-                    pathComputed = true;
+    private void doServiceWrapped(ServletRequest servletRequest, ServletResponse servletResponse)
+            throws ServletException, IOException {
+        HttpServletRequest httpRequest = (HttpServletRequest) servletRequest;
 
-                    if (null == path) {
-                        path = servletPath;
-                    }
-                }
+        // Reuse the wrapper of this thread if the DaggerFilter claimed the dispatch objects for this request.
+        DispatchArena arena = DispatchArena.current();
+        HttpServletRequest request = (arena != null) ? arena.acquireServletRequest(httpRequest, patternMatcher) : null;
+        if (request == null) {
+            service(new ServletPathRequestWrapper(httpRequest, patternMatcher), servletResponse);
+            return;
+        }
 
-                return path;
-            }
-        };
+        try {
+            service(request, servletResponse);
+        } finally {
+            arena.releaseServletRequest(httpRequest);
+        }
+    }
 
-        httpServlet.get().service(request, servletResponse);
+    private void service(HttpServletRequest request, ServletResponse servletResponse)
+            throws ServletException, IOException {
+        if (metrics == PipelineMetrics.NONE) {
+            httpServlet.get().service(request, servletResponse);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            httpServlet.get().service(request, servletResponse);
+        } finally {
+            metrics.servletCompleted(servletClass, pattern, System.nanoTime() - start);
+        }
+    }
+
+    void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
     }
 
     String getServletClass() {
@@ -256,4 +333,55 @@ public class ServletDefinition {
     String getPattern() {
         return pattern;
     }
+
+    UriPatternMatcher getPatternMatcher() {
+        return patternMatcher;
+    }
+
+    /**
+     * Gets the resolved servlet, or {@code null} if the servlet has not been resolved yet.
+     */
+    HttpServlet getServlet() {
+        return httpServlet.get();
+    }
+
+    /**
+     * Releases the concurrency limit held by an asynchronous request once the request completes, times out or fails,
+     * so the latency the limit adapts to covers the whole request.
+     */
+    private class ConcurrencyLimitRelease implements AsyncListener {
+        private final long start;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ConcurrencyLimitRelease(long start) {
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Listeners are removed when the request goes asynchronous again.
+            event.getAsyncContext().addListener(this);
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                releaseConcurrencyLimit(start);
+            }
+        }
+    }
 }
@@ -27,13 +27,17 @@ import javax.servlet.ServletContext;
  * following bindings are provided:
  * <ul>
  * <li>{@link ServletContext}</li>
+ * <li>{@link RequestScopedExecutors}</li>
+ * <li>{@link PipelineMetrics}</li>
  * </ul>
  *
  * @author John Leacox
  */
 @Module(
         injects = {
-                ServletContext.class
+                ServletContext.class,
+                RequestScopedExecutors.class,
+                PipelineMetrics.class
         },
         includes = {
                 InternalServletModule.class
@@ -45,4 +49,10 @@ public class ServletModule {
     ServletContext provideServletContext(ServletContextProvider servletContextProvider) {
         return servletContextProvider.get();
     }
+
+    @Provides
+    @Singleton
+    PipelineMetrics providePipelineMetrics(PipelineOptions pipelineOptions) {
+        return pipelineOptions.metrics();
+    }
 }
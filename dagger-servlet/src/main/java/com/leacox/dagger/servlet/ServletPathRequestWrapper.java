@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import static com.leacox.dagger.servlet.ManagedServletPipeline.REQUEST_DISPATCHER_REQUEST;
+
+/**
+ * The request a managed servlet is serviced with. The servlet path is computed from the servlet's URI pattern, and
+ * the path info is the rest of the context relative request URI. Both are computed once and memoized.
+ *
+ * @author dhanji@gmail.com (Dhanji R. Prasanna)
+ * @author John Leacox
+ */
+final class ServletPathRequestWrapper extends HttpServletRequestWrapper {
+    private UriPatternMatcher patternMatcher;
+
+    private String path;
+    private boolean pathComputed = false;
+    //must use a boolean on the memo field, because null is a legal value (TODO no, it's not)
+
+    private boolean pathInfoComputed = false;
+    private String pathInfo;
+
+    ServletPathRequestWrapper(HttpServletRequest request, UriPatternMatcher patternMatcher) {
+        super(request);
+        this.patternMatcher = patternMatcher;
+    }
+
+    /**
+     * Points a reused wrapper at another request, see {@link DispatchArena}.
+     */
+    void reset(HttpServletRequest request, UriPatternMatcher patternMatcher) {
+        setRequest(request);
+        this.patternMatcher = patternMatcher;
+        path = null;
+        pathComputed = false;
+        pathInfo = null;
+        pathInfoComputed = false;
+    }
+
+    @Override
+    public String getPathInfo() {
+        if (!isPathInfoComputed()) {
+            int servletPathLength = getServletPath().length();
+            int contextPathLength = getContextPath().length();
+            String requestUri = getRequestURI();
+
+            // Only copy the URI to collapse repeated slashes if there are any.
+            String path = requestUri;
+            int pathStart = contextPathLength;
+            if (requestUri.indexOf("//", contextPathLength) >= 0) {
+                path = collapseSlashes(requestUri.substring(contextPathLength));
+                pathStart = 0;
+            }
+
+            // When servlet path and request path match exactly (without trailing '/'), then pathinfo is null
+            int pathInfoStart = pathStart + servletPathLength;
+            pathInfo = path.length() > pathInfoStart ? path.substring(pathInfoStart) : null;
+
+            pathInfoComputed = true;
+        }
+
+        return pathInfo;
+    }
+
+    // NOTE(dhanji): These two are a bit of a hack to help ensure that request dipatcher-sent
+    // requests don't use the same path info that was memoized for the original request.
+    private boolean isPathInfoComputed() {
+        return pathInfoComputed
+                && !(null != getAttribute(REQUEST_DISPATCHER_REQUEST));
+    }
+
+    private boolean isPathComputed() {
+        return pathComputed
+                && !(null != getAttribute(REQUEST_DISPATCHER_REQUEST));
+    }
+
+    @Override
+    public String getServletPath() {
+        return computePath();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public String getPathTranslated() {
+        final String info = getPathInfo();
+
+        return (null == info) ? null : getRealPath(info);
+    }
+
+    // Memoizer pattern.
+    private String computePath() {
+        if (!isPathComputed()) {
+            String servletPath = super.getServletPath();
+            path = patternMatcher.extractPath(servletPath);
+            pathComputed = true;
+
+            if (null == path) {
+                path = servletPath;
+            }
+        }
+
+        return path;
+    }
+
+    /**
+     * Collapses each run of two or more slashes into a single slash, in one pass.
+     *
+     * @return the given path itself if it has no repeated slashes.
+     */
+    static String collapseSlashes(String path) {
+        int firstRepeat = path.indexOf("//");
+        if (firstRepeat < 0) {
+            return path;
+        }
+
+        int length = path.length();
+        StringBuilder collapsed = new StringBuilder(length - 1);
+        collapsed.append(path, 0, firstRepeat + 1);
+        boolean afterSlash = true;
+        for (int i = firstRepeat + 2; i < length; i++) {
+            char c = path.charAt(i);
+            if (c == '/' && afterSlash) {
+                continue;
+            }
+
+            collapsed.append(c);
+            afterSlash = c == '/';
+        }
+
+        return collapsed.toString();
+    }
+}
@@ -25,6 +25,7 @@ import dagger.Module;
  * <li>{@link javax.servlet.ServletRequest}</li>
  * <li>{@link javax.servlet.ServletResponse}</li>
  * <li>{@link javax.servlet.http.HttpSession}</li>
+ * <li>{@code @}{@link PathParams} {@code Map<String, String>}</li>
  * </ul>
  *
  * @author John Leacox
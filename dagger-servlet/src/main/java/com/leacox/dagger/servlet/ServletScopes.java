@@ -20,20 +20,40 @@ package com.leacox.dagger.servlet;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Striped;
+import com.leacox.dagger.servlet.scope.OutOfScopeException;
 import com.leacox.dagger.servlet.scope.Scope;
+import com.leacox.dagger.servlet.scope.ScopedGraphFactory;
 import dagger.ObjectGraph;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
 
 /**
  * @author John Leacox
  */
 public class ServletScopes {
-    private static final String SCOPED_OBJECT_GRAPH_KEY = DaggerKey.get(ObjectGraph.class).toString();
+    /**
+     * The request attribute holding the {@link ScopeStore} of a request.
+     */
+    @VisibleForTesting
+    static final String REQUEST_SCOPE_STORE_KEY = ScopeStore.class.getName();
+
+    /**
+     * The session attribute holding the {@link SessionScopeStore} of a session. All session scoped objects are kept in
+     * this one attribute, which only serializes the objects that changed.
+     */
+    @VisibleForTesting
+    static final String SESSION_SCOPE_STORE_KEY = SessionScopeStore.class.getName();
+
+    // Guards the creation of each session scoped object, striped by session and type.
+    private static final Striped<Lock> sessionScopedCreationLocks = Striped.lock(64);
+
+    // Only read when a scoped object is created.
+    private static volatile PipelineMetrics metrics = PipelineMetrics.NONE;
 
     private ServletScopes() {}
 
@@ -81,136 +101,304 @@ public class ServletScopes {
      */
     public static final Scope REQUEST = new Scope() {
         @Override
-        public <T> T scope(final Class<T> type, ObjectGraph unscopedGraph, final Object[] scopedModules) {
-            final String name = DaggerKey.get(type).toString();
-
-            // Check if the alternate request scope should be used, if no HTTP
-            // request is in progress.
-            if (null == DaggerFilter.localContext.get()) {
-
-                // NOTE(dhanji): We don't need to synchronize on the scope map
-                // unlike the HTTP request because we're the only ones who have
-                // a reference to it, and it is only available via a threadlocal.
-                Map<String, Object> scopeMap = requestScopeContext.get();
-                if (null != scopeMap) {
-                    @SuppressWarnings("unchecked")
-                    T t = (T) scopeMap.get(name);
-
-                    // Accounts for @Nullable providers.
-                    if (NullObject.INSTANCE == t) {
-                        return null;
-                    }
-
-                    if (t == null) {
-                        @SuppressWarnings("unchecked")
-                        ObjectGraph scopedObjectGraph = (ObjectGraph) scopeMap.get(SCOPED_OBJECT_GRAPH_KEY);
-                        if (scopedObjectGraph == null) {
-                            scopedObjectGraph = unscopedGraph.plus(scopedModules);
-                            scopeMap.put(SCOPED_OBJECT_GRAPH_KEY, scopedObjectGraph);
-                        }
-
-                        t = scopedObjectGraph.get(type);
-                        // Store a sentinel for provider-given null values.
-                        scopeMap.put(name, t != null ? t : NullObject.INSTANCE);
-                    }
+        public <T> T scope(final Class<T> type, ObjectGraph unscopedGraph,
+                           final ScopedGraphFactory scopedGraphFactory) {
+            ScopeStore scopeStore = getRequestScopeStore();
+
+            Object obj = scopeStore.get(type);
+            if (obj == null) {
+                T t = getScopedObjectGraph(scopeStore, unscopedGraph, scopedGraphFactory).get(type);
+                // Store a sentinel for provider-given null values.
+                Object created = (t != null) ? t : NullObject.INSTANCE;
+                obj = scopeStore.existingOrPut(type, created);
+                if (obj == null) {
+                    // Only count the instance that won a race with another thread creating the same type.
+                    metrics.scopedInstanceCreated(RequestScoped.class, type);
+                    obj = created;
+                }
+            }
 
-                    return t;
-                } // else: fall into normal HTTP request scope and out of scope
-                // exception is thrown.
+            // Accounts for @Nullable providers.
+            if (NullObject.INSTANCE == obj) {
+                return null;
             }
 
-            HttpServletRequest request = DaggerFilter.getRequest();
+            @SuppressWarnings("unchecked")
+            T t = (T) obj;
+            return t;
+        }
 
-            synchronized (request) {
-                Object obj = request.getAttribute(name);
-                if (NullObject.INSTANCE == obj) {
-                    return null;
+        @Override
+        public <T> T scopeInstance(T value, ObjectGraph unscopedGraph,
+                                   final ScopedGraphFactory scopedGraphFactory) {
+            Class<?> type = value.getClass();
+            ScopeStore scopeStore = getRequestScopeStore();
+
+            Object obj = scopeStore.get(type);
+            if (obj == null) {
+                T t = getScopedObjectGraph(scopeStore, unscopedGraph, scopedGraphFactory).inject(value);
+                // Store a sentinel for provider-given null values.
+                Object created = (t != null) ? t : NullObject.INSTANCE;
+                obj = scopeStore.existingOrPut(type, created);
+                if (obj == null) {
+                    // Only count the instance that won a race with another thread creating the same type.
+                    metrics.scopedInstanceCreated(RequestScoped.class, type);
+                    obj = created;
                 }
-                @SuppressWarnings("unchecked")
-                T t = (T) obj;
-                if (t == null) {
-                    @SuppressWarnings("unchecked")
-                    ObjectGraph scopedObjectGraph = (ObjectGraph) request.getAttribute(SCOPED_OBJECT_GRAPH_KEY);
-                    if (scopedObjectGraph == null) {
-                        scopedObjectGraph = unscopedGraph.plus(scopedModules);
-                        request.setAttribute(SCOPED_OBJECT_GRAPH_KEY, scopedObjectGraph);
-                    }
+            }
 
-                    t = scopedObjectGraph.get(type);
-                    request.setAttribute(name, (t != null) ? t : NullObject.INSTANCE);
-                }
-                return t;
+            // Accounts for @Nullable providers.
+            if (NullObject.INSTANCE == obj) {
+                return null;
             }
+
+            @SuppressWarnings("unchecked")
+            T t = (T) obj;
+            return t;
         }
 
+        public String toString() {
+            return "ServletScopes.REQUEST";
+        }
+    };
+
+    /**
+     * HTTP session scope.
+     * <p/>
+     * The session scoped objects are serialized with the session. See {@link #markSessionScopedDirty(Class)}.
+     */
+    public static final Scope SESSION = new Scope() {
         @Override
-        public <T> T scopeInstance(T value, ObjectGraph unscopedGraph, final Object[] scopedModules) {
-            Class<?> type = value.getClass();
-            final String name = DaggerKey.get(type).toString();
-
-            // Check if the alternate request scope should be used, if no HTTP
-            // request is in progress.
-            if (null == DaggerFilter.localContext.get()) {
-
-                // NOTE(dhanji): We don't need to synchronize on the scope map
-                // unlike the HTTP request because we're the only ones who have
-                // a reference to it, and it is only available via a threadlocal.
-                Map<String, Object> scopeMap = requestScopeContext.get();
-                if (null != scopeMap) {
-                    @SuppressWarnings("unchecked")
-                    T t = (T) scopeMap.get(name);
-
-                    // Accounts for @Nullable providers.
-                    if (NullObject.INSTANCE == t) {
-                        return null;
+        public <T> T scope(Class<T> type, ObjectGraph unscopedGraph, ScopedGraphFactory scopedGraphFactory) {
+            HttpSession session = getSession();
+            SessionScopeStore scopeStore = getSessionScopeStore(session);
+            rehydrateSessionScoped(scopeStore, type, unscopedGraph, scopedGraphFactory);
+
+            Object obj = scopeStore.get(type);
+            if (obj == null) {
+                Lock lock = getSessionScopedCreationLock(scopeStore, type);
+                lock.lock();
+                try {
+                    obj = scopeStore.get(type);
+                    if (obj == null) {
+                        T t = getSessionScopedObjectGraph(scopeStore, unscopedGraph, scopedGraphFactory).get(type);
+                        metrics.scopedInstanceCreated(SessionScoped.class, type);
+                        // Store a sentinel for provider-given null values.
+                        obj = scopeStore.putIfAbsent(type, (t != null) ? t : NullObject.INSTANCE);
+                        sessionScopeStoreChanged(session, scopeStore);
                     }
+                } finally {
+                    lock.unlock();
+                }
+            }
 
-                    if (t == null) {
-                        @SuppressWarnings("unchecked")
-                        ObjectGraph scopedObjectGraph = (ObjectGraph) scopeMap.get(SCOPED_OBJECT_GRAPH_KEY);
-                        if (scopedObjectGraph == null) {
-                            scopedObjectGraph = unscopedGraph.plus(scopedModules);
-                            scopeMap.put(SCOPED_OBJECT_GRAPH_KEY, scopedObjectGraph);
-                        }
+            // Accounts for @Nullable providers.
+            if (NullObject.INSTANCE == obj) {
+                return null;
+            }
+
+            @SuppressWarnings("unchecked")
+            T t = (T) obj;
+            return t;
+        }
 
-                        t = scopedObjectGraph.inject(value);
+        @Override
+        public <T> T scopeInstance(T value, ObjectGraph unscopedGraph, ScopedGraphFactory scopedGraphFactory) {
+            Class<?> type = value.getClass();
+            HttpSession session = getSession();
+            SessionScopeStore scopeStore = getSessionScopeStore(session);
+            rehydrateSessionScoped(scopeStore, type, unscopedGraph, scopedGraphFactory);
+
+            Object obj = scopeStore.get(type);
+            if (obj == null) {
+                Lock lock = getSessionScopedCreationLock(scopeStore, type);
+                lock.lock();
+                try {
+                    obj = scopeStore.get(type);
+                    if (obj == null) {
+                        T t = getSessionScopedObjectGraph(scopeStore, unscopedGraph, scopedGraphFactory)
+                                .inject(value);
+                        metrics.scopedInstanceCreated(SessionScoped.class, type);
                         // Store a sentinel for provider-given null values.
-                        scopeMap.put(name, t != null ? t : NullObject.INSTANCE);
+                        obj = scopeStore.putIfAbsent(type, (t != null) ? t : NullObject.INSTANCE);
+                        sessionScopeStoreChanged(session, scopeStore);
                     }
+                } finally {
+                    lock.unlock();
+                }
+            }
 
-                    return t;
-                } // else: fall into normal HTTP request scope and out of scope
-                // exception is thrown.
+            // Accounts for @Nullable providers.
+            if (NullObject.INSTANCE == obj) {
+                return null;
             }
 
-            HttpServletRequest request = DaggerFilter.getRequest();
+            @SuppressWarnings("unchecked")
+            T t = (T) obj;
+            return t;
+        }
+
+        public String toString() {
+            return "ServletScopes.SESSION";
+        }
+    };
+
+    /**
+     * Sets the listener that is told about every scoped object created by the servlet scopes.
+     */
+    static void setMetrics(PipelineMetrics metrics) {
+        ServletScopes.metrics = metrics;
+    }
+
+    /**
+     * Marks the session scoped object of the given type as changed, so that it is serialized again the next time the
+     * session is persisted or replicated. Session scoped objects are only serialized when they are created and after
+     * they are marked, so call this after changing the state of a session scoped object.
+     * <p/>
+     * Must be called from within an HTTP request. Does nothing if no object of the given type is in the session.
+     *
+     * @param type the type of the changed session scoped object
+     * @throws OutOfScopeException if not called from within an HTTP request
+     */
+    public static void markSessionScopedDirty(Class<?> type) {
+        HttpSession session = getSession();
+        SessionScopeStore scopeStore = getSessionScopeStore(session);
+        scopeStore.markDirty(type);
+        sessionScopeStoreChanged(session, scopeStore);
+    }
 
-            synchronized (request) {
-                Object obj = request.getAttribute(name);
-                if (NullObject.INSTANCE == obj) {
-                    return null;
+    /**
+     * Returns the session of the HTTP request in progress, creating it if there is none.
+     */
+    private static HttpSession getSession() {
+        HttpServletRequest request = DaggerFilter.getRequest();
+        if (request == null) {
+            throw new OutOfScopeException("Cannot access scoped object. Either we are not currently inside an HTTP "
+                    + "Servlet request, or you may have forgotten to apply " + DaggerFilter.class.getName()
+                    + " as a servlet filter for this request.");
+        }
+
+        return request.getSession();
+    }
+
+    /**
+     * Returns the scope store of the given session, creating it if there is none.
+     */
+    private static SessionScopeStore getSessionScopeStore(HttpSession session) {
+        Object scopeStore = session.getAttribute(SESSION_SCOPE_STORE_KEY);
+        if (scopeStore == null) {
+            // Sessions may be represented by a different object on each request, so lock on the session id.
+            Lock lock = RequestLocks.get(session.getId());
+            lock.lock();
+            try {
+                scopeStore = session.getAttribute(SESSION_SCOPE_STORE_KEY);
+                if (scopeStore == null) {
+                    scopeStore = new SessionScopeStore();
+                    session.setAttribute(SESSION_SCOPE_STORE_KEY, scopeStore);
                 }
-                @SuppressWarnings("unchecked")
-                T t = (T) obj;
-                if (t == null) {
-                    @SuppressWarnings("unchecked")
-                    ObjectGraph scopedObjectGraph = (ObjectGraph) request.getAttribute(SCOPED_OBJECT_GRAPH_KEY);
-                    if (scopedObjectGraph == null) {
-                        scopedObjectGraph = unscopedGraph.plus(scopedModules);
-                        request.setAttribute(SCOPED_OBJECT_GRAPH_KEY, scopedObjectGraph);
-                    }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        return (SessionScopeStore) scopeStore;
+    }
+
+    /**
+     * Sets the scope store attribute again, which is how containers that replicate sessions learn that an attribute
+     * changed.
+     */
+    private static void sessionScopeStoreChanged(HttpSession session, SessionScopeStore scopeStore) {
+        session.setAttribute(SESSION_SCOPE_STORE_KEY, scopeStore);
+    }
+
+    /**
+     * Restores the session scoped objects that were read with the given store, the first time the session scope is
+     * used after a failover.
+     */
+    private static void rehydrateSessionScoped(SessionScopeStore scopeStore, Class<?> type, ObjectGraph unscopedGraph,
+                                               ScopedGraphFactory scopedGraphFactory) {
+        if (scopeStore.isRehydrationPending()) {
+            scopeStore.rehydrate(type.getClassLoader(),
+                    getSessionScopedObjectGraph(scopeStore, unscopedGraph, scopedGraphFactory));
+        }
+    }
+
+    /**
+     * Returns the scoped object graph of the given session store. The graph is not serialized with the session, so
+     * after a failover it is only created again when the session scope is first used.
+     */
+    private static ObjectGraph getSessionScopedObjectGraph(SessionScopeStore scopeStore, ObjectGraph unscopedGraph,
+                                                           ScopedGraphFactory scopedGraphFactory) {
+        ObjectGraph scopedObjectGraph = scopeStore.getObjectGraph();
+        if (scopedObjectGraph == null) {
+            scopedObjectGraph = scopeStore.putObjectGraphIfAbsent(scopedGraphFactory.newGraph(unscopedGraph));
+        }
 
-                    t = scopedObjectGraph.inject(value);
-                    request.setAttribute(name, (t != null) ? t : NullObject.INSTANCE);
+        return scopedObjectGraph;
+    }
+
+    /**
+     * Returns the lock guarding the creation of the scoped object of the given type in the given store. Only the
+     * creation of the same type in the same store has to wait, other lookups of the session go ahead.
+     */
+    private static Lock getSessionScopedCreationLock(SessionScopeStore scopeStore, Class<?> type) {
+        return sessionScopedCreationLocks.get(31 * System.identityHashCode(scopeStore) + type.hashCode());
+    }
+
+    /**
+     * Returns the scope store of the request in progress. The alternate request scope is used if no HTTP request is
+     * in progress.
+     */
+    private static ScopeStore getRequestScopeStore() {
+        if (null == DaggerFilter.localContext.get()) {
+            ScopeStore scopeStore = requestScopeContext.get();
+            if (null != scopeStore) {
+                return scopeStore;
+            } // else: fall into normal HTTP request scope and out of scope
+            // exception is thrown.
+        }
+
+        HttpServletRequest request = DaggerFilter.getRequest();
+        if (request == null) {
+            throw new OutOfScopeException("Cannot access scoped object. Either we are not currently inside an HTTP "
+                    + "Servlet request, or you may have forgotten to apply " + DaggerFilter.class.getName()
+                    + " as a servlet filter for this request.");
+        }
+
+        Object scopeStore = request.getAttribute(REQUEST_SCOPE_STORE_KEY);
+        if (scopeStore == null) {
+            // Only the first scoped lookup of a request creates the store, every later lookup is lock free.
+            Lock lock = RequestLocks.get(request);
+            lock.lock();
+            try {
+                scopeStore = request.getAttribute(REQUEST_SCOPE_STORE_KEY);
+                if (scopeStore == null) {
+                    scopeStore = new ScopeStore();
+                    request.setAttribute(REQUEST_SCOPE_STORE_KEY, scopeStore);
                 }
-                return t;
+            } finally {
+                lock.unlock();
             }
         }
 
-        public String toString() {
-            return "ServletScopes.REQUEST";
+        return (ScopeStore) scopeStore;
+    }
+
+    /**
+     * Returns the scoped object graph of the given store, creating it if this is the first scoped lookup. Racing
+     * creators agree on a single graph, so every scoped object of the store comes from the same graph.
+     */
+    private static ObjectGraph getScopedObjectGraph(ScopeStore scopeStore, ObjectGraph unscopedGraph,
+                                                    ScopedGraphFactory scopedGraphFactory) {
+        Object scopedObjectGraph = scopeStore.get(ObjectGraph.class);
+        if (scopedObjectGraph == null) {
+            scopedObjectGraph = scopeStore.putIfAbsent(ObjectGraph.class,
+                    scopedGraphFactory.newGraph(unscopedGraph));
         }
-    };
+
+        return (ObjectGraph) scopedObjectGraph;
+    }
 
     /**
      * Wraps the given callable in a contextual callable that "continues" the
@@ -243,49 +431,45 @@ public class ServletScopes {
                                                   final Map<Class<?>, Object> seedMap) {
         Preconditions.checkArgument(null != seedMap,
                 "Seed map cannot be null, try passing in Collections.emptyMap() instead.");
-        // Snapshot the seed map and add all the instances to our continuing HTTP request.
-        final ContinuingHttpServletRequest continuingRequest =
-                new ContinuingHttpServletRequest(DaggerFilter.getRequest());
-        for (Map.Entry<Class<?>, Object> entry : seedMap.entrySet()) {
-            Object value = validateAndCanonicalizeValue(entry.getKey(), entry.getValue());
-            continuingRequest.setAttribute(DaggerKey.get(entry.getKey()).toString(), value);
-        }
+        final HttpServletRequest continuingRequest = newContinuingRequest(DaggerFilter.getRequest(), seedMap);
 
         return new Callable<T>() {
             private HttpServletRequest request = continuingRequest;
 
             @Override
             public T call() throws Exception {
-                DaggerFilter.Context context = DaggerFilter.localContext.get();
-                Preconditions.checkState(null == context,
+                Preconditions.checkState(null == DaggerFilter.localContext.get(),
                         "Cannot continue request in the same thread as a HTTP request!");
 
                 // Only set up the request continuation if we're running in a
                 // new vanilla thread.
-                DaggerFilter.localContext.set(new DaggerFilter.Context(request, null));
-                try {
-                    return callable.call();
-                } finally {
-                    // Clear the copied context if we set one up.
-                    if (null == context) {
-                        DaggerFilter.localContext.remove();
-                    }
-                }
+                return DaggerFilter.localContext.call(new DaggerFilter.Context(request, null), callable);
             }
         };
     }
 
+    /**
+     * Snapshots the given HTTP request for continuing it in another thread, with a request scope of its own seeded
+     * with the given seed map.
+     */
+    static HttpServletRequest newContinuingRequest(HttpServletRequest request, Map<Class<?>, Object> seedMap) {
+        // Snapshot the seed map and add all the instances to our continuing HTTP request.
+        ContinuingHttpServletRequest continuingRequest = new ContinuingHttpServletRequest(request);
+        continuingRequest.setAttribute(REQUEST_SCOPE_STORE_KEY, newSeededScopeStore(seedMap));
+
+        return continuingRequest;
+    }
+
     public static boolean isNonHttpRequestScope() {
         return requestScopeContext.get() != null;
     }
 
     /**
-     * A threadlocal scope map for non-http request scopes. The {@link #REQUEST}
-     * scope falls back to this scope map if no http request is available, and
+     * A scope store for non-http request scopes. The {@link #REQUEST}
+     * scope falls back to this scope store if no http request is available, and
      * requires {@link #scopeRequest} to be called as an alertnative.
      */
-    private static final ThreadLocal<Map<String, Object>> requestScopeContext
-            = new ThreadLocal<Map<String, Object>>();
+    private static final ScopeCarrier<ScopeStore> requestScopeContext = ScopeCarriers.create();
 
     /**
      * Scopes the given callable inside a request scope. This is not the same
@@ -307,12 +491,8 @@ public class ServletScopes {
                                                Map<Class<?>, Object> seedMap) {
         Preconditions.checkNotNull(seedMap, "Seed map cannot be null, try passing in Collections.emptyMap() instead.");
 
-        // Copy the seed values into our local scope map.
-        final Map<String, Object> scopeMap = Maps.newHashMap();
-        for (Map.Entry<Class<?>, Object> entry : seedMap.entrySet()) {
-            Object value = validateAndCanonicalizeValue(entry.getKey(), entry.getValue());
-            scopeMap.put(DaggerKey.get(entry.getKey()).toString(), value);
-        }
+        // Copy the seed values into our local scope store.
+        final ScopeStore scopeStore = newSeededScopeStore(seedMap);
 
         return new Callable<T>() {
             @Override
@@ -322,17 +502,24 @@ public class ServletScopes {
                 Preconditions.checkState(null == requestScopeContext.get(),
                         "A request scope is already in progress, cannot scope a new request in this thread.");
 
-                requestScopeContext.set(scopeMap);
-
-                try {
-                    return callable.call();
-                } finally {
-                    requestScopeContext.remove();
-                }
+                return requestScopeContext.call(scopeStore, callable);
             }
         };
     }
 
+    /**
+     * Creates a new scope store containing the given seed values.
+     */
+    private static ScopeStore newSeededScopeStore(Map<Class<?>, Object> seedMap) {
+        ScopeStore scopeStore = new ScopeStore();
+        for (Map.Entry<Class<?>, Object> entry : seedMap.entrySet()) {
+            Object value = validateAndCanonicalizeValue(entry.getKey(), entry.getValue());
+            scopeStore.put(entry.getKey(), value);
+        }
+
+        return scopeStore;
+    }
+
     /**
      * Validates the type and object, ensuring the value matches the type, and
      * canonicalizing null objects to the null sentinel.
@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.Maps;
+import dagger.ObjectGraph;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the session scoped objects of a single HTTP session, in a single session attribute.
+ * <p/>
+ * The store can be serialized with the session, for containers that persist or replicate sessions. All scoped
+ * objects are serialized together in one stream, so references between them, and to objects they share, are
+ * restored as they were. The serialized form is kept, and only written again after a scoped object was created or
+ * marked dirty, so serializing a session does not serialize the scoped objects each time. Call
+ * {@link ServletScopes#markSessionScopedDirty(Class)} after changing one. Objects that are not {@link Serializable}
+ * are not persisted and are created again after a failover.
+ * <p/>
+ * After the store is deserialized, the scoped objects are only deserialized when the session scope is first used,
+ * with the session's new object graph. Each object that was created by Dagger for its own class then has its members
+ * injected again from that graph, so {@code transient} {@code @Inject} fields are restored. All of its injected
+ * fields and methods are injected again, and injected session scoped types come from the new graph. Objects
+ * provided for another type, such as an interface, are not injected again.
+ *
+ * @author John Leacox
+ */
+final class SessionScopeStore implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private transient ConcurrentMap<Class<?>, Object> scopedObjects;
+    // The serialized scoped objects, written the last time the store was serialized or read with the store.
+    private transient volatile byte[] serializedObjects;
+    // Whether the serialized scoped objects were read with the store and not deserialized yet.
+    private transient volatile boolean rehydrationPending;
+    private transient AtomicBoolean dirty;
+    private transient ReentrantLock rehydrationLock;
+    private transient AtomicReference<ObjectGraph> scopedObjectGraph;
+
+    SessionScopeStore() {
+        initTransientState();
+    }
+
+    private void initTransientState() {
+        scopedObjects = new ConcurrentHashMap<Class<?>, Object>();
+        dirty = new AtomicBoolean();
+        rehydrationLock = new ReentrantLock();
+        scopedObjectGraph = new AtomicReference<ObjectGraph>();
+    }
+
+    /**
+     * @return the scoped object stored for the given type, or null if there is none yet. Objects read with the store
+     * are only found after {@link #rehydrate}.
+     */
+    Object get(Class<?> type) {
+        return scopedObjects.get(type);
+    }
+
+    /**
+     * Stores the value unless another value was already stored for the type. Storing a value makes the store dirty.
+     *
+     * @return the value stored for the type once this call returns, either the given value or the one that was
+     * already present.
+     */
+    Object putIfAbsent(Class<?> type, Object value) {
+        Object existing = scopedObjects.putIfAbsent(type, value);
+        if (existing != null) {
+            return existing;
+        }
+
+        dirty.set(true);
+        return value;
+    }
+
+    /**
+     * Marks the scoped object of the given type as changed, so the scoped objects are serialized again with the
+     * session.
+     */
+    void markDirty(Class<?> type) {
+        if (scopedObjects.containsKey(type)) {
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * @return whether scoped objects read with the store still have to be deserialized with {@link #rehydrate}.
+     */
+    boolean isRehydrationPending() {
+        return rehydrationPending;
+    }
+
+    /**
+     * Deserializes the scoped objects read with the store, injects the members of the ones created for their own
+     * class again with the given graph, and stores them. Objects that could not be deserialized are dropped, so they
+     * are created again. Does nothing if the objects were already rehydrated, or are being rehydrated by the current
+     * thread, for example while injecting one of them.
+     *
+     * @param classLoader the class loader to resolve the classes of the scoped objects with
+     * @param objectGraph the scoped object graph of the session
+     */
+    void rehydrate(ClassLoader classLoader, ObjectGraph objectGraph) {
+        if (rehydrationLock.isHeldByCurrentThread()) {
+            return;
+        }
+
+        rehydrationLock.lock();
+        try {
+            if (!rehydrationPending) {
+                return;
+            }
+
+            Map<Class<?>, Object> restoredObjects;
+            try {
+                restoredObjects = deserialize(serializedObjects, classLoader);
+            } catch (Exception e) {
+                // A class changed since the session was saved, so the objects are created again.
+                LoggerFactory.getLogger(SessionScopeStore.class)
+                        .warn("Could not restore the session scoped objects, creating new ones", e);
+                serializedObjects = null;
+                rehydrationPending = false;
+                return;
+            }
+
+            for (Map.Entry<Class<?>, Object> entry : restoredObjects.entrySet()) {
+                if (entry.getValue().getClass() == entry.getKey()) {
+                    objectGraph.inject(entry.getValue());
+                }
+            }
+
+            // Restored objects are clean, their serialized form is still current.
+            for (Map.Entry<Class<?>, Object> entry : restoredObjects.entrySet()) {
+                scopedObjects.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+
+            rehydrationPending = false;
+        } finally {
+            rehydrationLock.unlock();
+        }
+    }
+
+    /**
+     * @return the object graph of the session, or null if it was not created yet.
+     */
+    ObjectGraph getObjectGraph() {
+        return scopedObjectGraph.get();
+    }
+
+    /**
+     * Stores the object graph of the session unless another graph was already stored.
+     *
+     * @return the stored object graph, either the given graph or the one that was already present.
+     */
+    ObjectGraph putObjectGraphIfAbsent(ObjectGraph objectGraph) {
+        if (scopedObjectGraph.compareAndSet(null, objectGraph)) {
+            return objectGraph;
+        }
+
+        return scopedObjectGraph.get();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+
+        // Clear the flag first, so a change made while serializing marks the store dirty again.
+        if (dirty.getAndSet(false)) {
+            Map<Class<?>, Object> persistentObjects = Maps.newHashMap();
+            for (Map.Entry<Class<?>, Object> entry : scopedObjects.entrySet()) {
+                if (entry.getValue() instanceof Serializable) {
+                    persistentObjects.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            try {
+                serializedObjects = serialize(persistentObjects);
+            } catch (IOException e) {
+                dirty.set(true);
+                throw e;
+            }
+        }
+
+        out.writeObject(serializedObjects);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initTransientState();
+
+        serializedObjects = (byte[]) in.readObject();
+        rehydrationPending = serializedObjects != null;
+    }
+
+    private static byte[] serialize(Map<Class<?>, Object> objects) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(objects);
+        } finally {
+            out.close();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Class<?>, Object> deserialize(byte[] serializedObjects, ClassLoader classLoader)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(serializedObjects),
+                classLoader);
+        try {
+            return (Map<Class<?>, Object>) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Resolves classes with the class loader of the scoped types, which is usually the web application's.
+     */
+    private static class ClassLoaderObjectInputStream extends ObjectInputStream {
+        private final ClassLoader classLoader;
+
+        ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (classLoader == null) {
+                return super.resolveClass(desc);
+            }
+
+            try {
+                return Class.forName(desc.getName(), false, classLoader);
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
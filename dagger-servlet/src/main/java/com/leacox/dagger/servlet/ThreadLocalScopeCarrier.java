@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.Callable;
+
+/**
+ * The default {@link ScopeCarrier}, carrying values in a thread local.
+ *
+ * @author John Leacox
+ */
+class ThreadLocalScopeCarrier<T> implements ScopeCarrier<T> {
+    private final ThreadLocal<T> threadLocal = new ThreadLocal<T>();
+
+    @Override
+    public T get() {
+        return threadLocal.get();
+    }
+
+    @Override
+    public <V> V call(T value, Callable<V> callable) throws Exception {
+        T previous = threadLocal.get();
+        set(value);
+        try {
+            return callable.call();
+        } finally {
+            set(previous);
+        }
+    }
+
+    @Override
+    public void remove() {
+        threadLocal.remove();
+    }
+
+    /**
+     * Binds the value to the current thread until it is replaced. Only for measuring code that must run in scope.
+     */
+    @VisibleForTesting
+    void set(T value) {
+        if (value == null) {
+            threadLocal.remove();
+        } else {
+            threadLocal.set(value);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.leacox.dagger.servlet.UriPatternType.RegexUriPatternMatcher;
+import static com.leacox.dagger.servlet.UriPatternType.ServletStyleUriPatternMatcher;
+
+/**
+ * Matches a URI against a list of URI patterns in one pass, instead of testing each pattern in turn. The patterns are
+ * compiled once:
+ * <ul>
+ * <li>Literal servlet patterns go into a hash map.</li>
+ * <li>Servlet patterns with a trailing wildcard ({@code /my/*}) go into a trie that is walked from the start of the
+ * URI.</li>
+ * <li>Servlet patterns with a leading wildcard ({@code *.html}) go into a trie that is walked from the end of the
+ * URI.</li>
+ * <li>Any other pattern, such as a regex, is tested with its own matcher.</li>
+ * </ul>
+ * Optionally, regex patterns can be combined into a single alternation, so that a URI is tested against all of them
+ * with one matcher instead of one matcher per pattern.
+ * Matching gives the same answer as testing each pattern in list order and stopping at the first match.
+ *
+ * @author John Leacox
+ */
+final class UriPatternRouter {
+    static final int NO_MATCH = -1;
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final Map<String, Integer> literals;
+    private final Node prefixes;
+    private final Node suffixes;
+    private final CombinedRegex combinedRegex;
+    private final int[] otherIndexes;
+    private final UriPatternMatcher[] otherMatchers;
+
+    private UriPatternRouter(Map<String, Integer> literals, Node prefixes, Node suffixes, CombinedRegex combinedRegex,
+                             int[] otherIndexes, UriPatternMatcher[] otherMatchers) {
+        this.literals = literals;
+        this.prefixes = prefixes;
+        this.suffixes = suffixes;
+        this.combinedRegex = combinedRegex;
+        this.otherIndexes = otherIndexes;
+        this.otherMatchers = otherMatchers;
+    }
+
+    /**
+     * Compiles the given pattern matchers. The index of a matcher in the array is what {@link #firstMatch(String)}
+     * returns for it.
+     */
+    static UriPatternRouter compile(UriPatternMatcher[] patternMatchers) {
+        return compile(patternMatchers, false);
+    }
+
+    /**
+     * Compiles the given pattern matchers. The index of a matcher in the array is what {@link #firstMatch(String)}
+     * returns for it.
+     *
+     * @param combineRegexPatterns whether to combine the regex patterns into a single regex.
+     */
+    static UriPatternRouter compile(UriPatternMatcher[] patternMatchers, boolean combineRegexPatterns) {
+        Map<String, Integer> literals = Maps.newHashMap();
+        Node prefixes = new Node();
+        Node suffixes = new Node();
+        List<Integer> regexIndexes = Lists.newArrayList();
+        List<String> regexes = Lists.newArrayList();
+        int[] otherIndexes = new int[patternMatchers.length];
+        UriPatternMatcher[] otherMatchers = new UriPatternMatcher[patternMatchers.length];
+        int otherCount = 0;
+
+        for (int index = 0; index < patternMatchers.length; index++) {
+            UriPatternMatcher patternMatcher = patternMatchers[index];
+            if (combineRegexPatterns && patternMatcher instanceof RegexUriPatternMatcher
+                    && CombinedRegex.canCombine(((RegexUriPatternMatcher) patternMatcher).getRegex())) {
+                regexIndexes.add(index);
+                regexes.add(((RegexUriPatternMatcher) patternMatcher).getRegex());
+                continue;
+            }
+
+            if (!(patternMatcher instanceof ServletStyleUriPatternMatcher)) {
+                otherIndexes[otherCount] = index;
+                otherMatchers[otherCount] = patternMatcher;
+                otherCount++;
+                continue;
+            }
+
+            ServletStyleUriPatternMatcher servletStyleMatcher = (ServletStyleUriPatternMatcher) patternMatcher;
+            String pattern = servletStyleMatcher.getPattern();
+            switch (servletStyleMatcher.getKind()) {
+                case PREFIX:
+                    suffixes.add(pattern, true, index);
+                    break;
+                case SUFFIX:
+                    prefixes.add(pattern, false, index);
+                    break;
+                default:
+                    // Only the first pattern registered for a literal can ever match.
+                    if (!literals.containsKey(pattern)) {
+                        literals.put(pattern, index);
+                    }
+            }
+        }
+
+        CombinedRegex combinedRegex = null;
+        if (!regexes.isEmpty()) {
+            combinedRegex = CombinedRegex.compile(regexIndexes, regexes);
+            if (combinedRegex == null) {
+                // The regexes could not be combined, so fall back to testing them one at a time.
+                return compile(patternMatchers, false);
+            }
+        }
+
+        return new UriPatternRouter(literals, prefixes, suffixes, combinedRegex,
+                Arrays.copyOf(otherIndexes, otherCount), Arrays.copyOf(otherMatchers, otherCount));
+    }
+
+    /**
+     * @param uri A "contextual" (i.e. relative) Request URI, *not* a complete one.
+     * @return the index of the first pattern that matches the URI, or {@link #NO_MATCH} if none of them do.
+     */
+    int firstMatch(String uri) {
+        if (null == uri) {
+            return NO_MATCH;
+        }
+
+        int first = NONE;
+
+        Integer literal = literals.get(uri);
+        if (literal != null) {
+            first = literal;
+        }
+
+        first = Math.min(first, prefixes.firstMatchFromStart(uri));
+        first = Math.min(first, suffixes.firstMatchFromEnd(uri));
+
+        if (combinedRegex != null && combinedRegex.lowestIndex() < first) {
+            first = Math.min(first, combinedRegex.firstMatch(uri));
+        }
+
+        // The other patterns are ordered, so only the ones registered before the current best need to be tried.
+        for (int i = 0; i < otherIndexes.length && otherIndexes[i] < first; i++) {
+            if (otherMatchers[i].matches(uri)) {
+                first = otherIndexes[i];
+                break;
+            }
+        }
+
+        return first == NONE ? NO_MATCH : first;
+    }
+
+    /**
+     * Regex patterns combined into one alternation of capturing groups, one group per pattern. Alternatives are tried
+     * in order, so the first group that took part in the match belongs to the first pattern that matches the URI.
+     */
+    private static final class CombinedRegex {
+        // Patterns whose meaning would change inside a larger regex: numbered or named back references and named
+        // groups (group numbers shift, names may clash), quoting (could swallow the closing group) and comments.
+        private static final Pattern NOT_COMBINABLE = Pattern.compile("\\\\[1-9k]|\\(\\?<[a-zA-Z]|\\\\Q|#");
+
+        private final Pattern pattern;
+        private final int[] groups;
+        private final int[] indexes;
+
+        private CombinedRegex(Pattern pattern, int[] groups, int[] indexes) {
+            this.pattern = pattern;
+            this.groups = groups;
+            this.indexes = indexes;
+        }
+
+        static boolean canCombine(String regex) {
+            return !NOT_COMBINABLE.matcher(regex).find();
+        }
+
+        /**
+         * @return the combined regex, or null if the regexes could not be combined.
+         */
+        static CombinedRegex compile(List<Integer> indexes, List<String> regexes) {
+            StringBuilder combined = new StringBuilder();
+            int[] groups = new int[regexes.size()];
+            int group = 1;
+            for (int i = 0; i < regexes.size(); i++) {
+                String regex = regexes.get(i);
+                if (i > 0) {
+                    combined.append('|');
+                }
+                combined.append('(').append(regex).append(')');
+
+                groups[i] = group;
+                group += 1 + Pattern.compile(regex).matcher("").groupCount();
+            }
+
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(combined.toString());
+            } catch (PatternSyntaxException e) {
+                return null;
+            }
+
+            if (pattern.matcher("").groupCount() != group - 1) {
+                return null;
+            }
+
+            int[] indexArray = new int[indexes.size()];
+            for (int i = 0; i < indexArray.length; i++) {
+                indexArray[i] = indexes.get(i);
+            }
+
+            return new CombinedRegex(pattern, groups, indexArray);
+        }
+
+        int lowestIndex() {
+            return indexes[0];
+        }
+
+        int firstMatch(String uri) {
+            Matcher matcher = pattern.matcher(uri);
+            if (!matcher.matches()) {
+                return NONE;
+            }
+
+            for (int i = 0; i < groups.length; i++) {
+                if (matcher.start(groups[i]) != -1) {
+                    return indexes[i];
+                }
+            }
+
+            return NONE;
+        }
+    }
+
+    /**
+     * A character trie node. Each node remembers the lowest pattern index of the patterns ending at it.
+     */
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private int index = NONE;
+
+        void add(String pattern, boolean reversed, int index) {
+            Node node = this;
+            int length = pattern.length();
+            for (int i = 0; i < length; i++) {
+                node = node.getOrAddChild(pattern.charAt(reversed ? length - 1 - i : i));
+            }
+
+            node.index = Math.min(node.index, index);
+        }
+
+        int firstMatchFromStart(String uri) {
+            int first = index;
+            Node node = this;
+            for (int i = 0; i < uri.length(); i++) {
+                node = node.getChild(uri.charAt(i));
+                if (node == null) {
+                    break;
+                }
+
+                first = Math.min(first, node.index);
+            }
+
+            return first;
+        }
+
+        int firstMatchFromEnd(String uri) {
+            int first = index;
+            Node node = this;
+            for (int i = uri.length() - 1; i >= 0; i--) {
+                node = node.getChild(uri.charAt(i));
+                if (node == null) {
+                    break;
+                }
+
+                first = Math.min(first, node.index);
+            }
+
+            return first;
+        }
+
+        private Node getChild(char key) {
+            int position = Arrays.binarySearch(keys, key);
+            return position >= 0 ? children[position] : null;
+        }
+
+        private Node getOrAddChild(char key) {
+            int position = Arrays.binarySearch(keys, key);
+            if (position >= 0) {
+                return children[position];
+            }
+
+            int insertAt = -position - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+
+            Node child = new Node();
+            newKeys[insertAt] = key;
+            newChildren[insertAt] = child;
+            keys = newKeys;
+            children = newChildren;
+
+            return child;
+        }
+    }
+}
@@ -16,16 +16,27 @@
 
 package com.leacox.dagger.servlet;
 
+import com.google.common.collect.Lists;
+
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 /**
  * An enumeration of the available URI-pattern matching styles
  *
  * @since 3.0
  */
 public enum UriPatternType {
-    SERVLET, REGEX;
+    SERVLET, REGEX,
+
+    /**
+     * A path template such as {@code /users/{id}/orders/{orderId}}, whose variables are available from the
+     * {@link PathParams} binding.
+     */
+    TEMPLATE;
 
     static UriPatternMatcher get(UriPatternType type, String pattern) {
         switch (type) {
@@ -33,6 +44,8 @@ public enum UriPatternType {
                 return new ServletStyleUriPatternMatcher(pattern);
             case REGEX:
                 return new RegexUriPatternMatcher(pattern);
+            case TEMPLATE:
+                return new TemplateUriPatternMatcher(pattern);
             default:
                 return null;
         }
@@ -43,11 +56,16 @@ public enum UriPatternType {
      *
      * @author dhanji@gmail.com (Dhanji R. Prasanna)
      */
-    private static class ServletStyleUriPatternMatcher implements UriPatternMatcher {
+    static class ServletStyleUriPatternMatcher implements UriPatternMatcher {
         private final String pattern;
         private final Kind patternKind;
 
-        private static enum Kind {PREFIX, SUFFIX, LITERAL,}
+        /**
+         * PREFIX patterns have a leading wildcard ({@code *.html}) and match URIs ending with the rest of the pattern,
+         * SUFFIX patterns have a trailing wildcard ({@code /my/*}) and match URIs starting with the rest of the
+         * pattern.
+         */
+        static enum Kind {PREFIX, SUFFIX, LITERAL,}
 
         public ServletStyleUriPatternMatcher(String pattern) {
             if (pattern.startsWith("*")) {
@@ -101,6 +119,17 @@ public enum UriPatternType {
         public UriPatternType getPatternType() {
             return UriPatternType.SERVLET;
         }
+
+        /**
+         * Returns the pattern without its wildcard.
+         */
+        String getPattern() {
+            return pattern;
+        }
+
+        Kind getKind() {
+            return patternKind;
+        }
     }
 
     /**
@@ -108,7 +137,7 @@ public enum UriPatternType {
      *
      * @author dhanji@gmail.com (Dhanji R. Prasanna)
      */
-    private static class RegexUriPatternMatcher implements UriPatternMatcher {
+    static class RegexUriPatternMatcher implements UriPatternMatcher {
         private final Pattern pattern;
 
         public RegexUriPatternMatcher(String pattern) {
@@ -141,6 +170,148 @@ public enum UriPatternType {
         public UriPatternType getPatternType() {
             return UriPatternType.REGEX;
         }
+
+        String getRegex() {
+            return pattern.pattern();
+        }
     }
-}
 
+    /**
+     * Matches URIs against a path template. Each {@code {name}} variable matches one or more characters within a
+     * single path segment. A variable followed by more of the template ends at the first place the rest of its
+     * segment's literal text occurs, and the last variable extends to the end of the URI, or to the literal text
+     * that ends the template.
+     * <p/>
+     * The template is parsed once into its literal parts and variable names. Matching walks the URI without
+     * allocating, and the captured variables are recorded as offsets into the URI.
+     *
+     * @author John Leacox
+     */
+    static class TemplateUriPatternMatcher implements UriPatternMatcher {
+        // The literal text before, between and after the variables. There is one more literal than there are names.
+        private final String[] literals;
+        private final String[] names;
+
+        public TemplateUriPatternMatcher(String template) {
+            List<String> literals = Lists.newArrayList();
+            List<String> names = Lists.newArrayList();
+            int position = 0;
+            int open;
+            while ((open = template.indexOf('{', position)) >= 0) {
+                int close = template.indexOf('}', open);
+                checkArgument(close > open + 1, "Unterminated or empty variable in path template: %s", template);
+                String name = template.substring(open + 1, close);
+                checkArgument(name.indexOf('{') < 0 && name.indexOf('/') < 0,
+                        "Invalid variable name '%s' in path template: %s", name, template);
+                checkArgument(!names.contains(name), "Duplicate variable '%s' in path template: %s", name, template);
+                checkArgument(names.isEmpty() || open > position,
+                        "Variables must be separated by literal text in path template: %s", template);
+
+                literals.add(template.substring(position, open));
+                names.add(name);
+                position = close + 1;
+            }
+            checkArgument(template.indexOf('}', position) < 0, "Unopened variable in path template: %s", template);
+            literals.add(template.substring(position));
+
+            this.literals = literals.toArray(new String[literals.size()]);
+            this.names = names.toArray(new String[names.size()]);
+        }
+
+        @Override
+        public boolean matches(String uri) {
+            return null != uri && capture(uri, null);
+        }
+
+        /**
+         * Matches the URI, recording the start and end offset of each variable in the URI into the given array, at
+         * {@code 2 * i} and {@code 2 * i + 1} for the variable at index {@code i}.
+         *
+         * @param offsets the array to record into, at least twice as long as the number of variables, or null to only
+         *                match.
+         * @return true if the URI matches the template.
+         */
+        boolean capture(String uri, int[] offsets) {
+            if (!uri.startsWith(literals[0])) {
+                return false;
+            }
+
+            int position = literals[0].length();
+            for (int i = 0; i < names.length; i++) {
+                String next = literals[i + 1];
+                int end;
+                if (i == names.length - 1) {
+                    // The last variable runs up to the literal text that ends the template.
+                    end = uri.length() - next.length();
+                    if (end < position || !uri.startsWith(next, end)) {
+                        return false;
+                    }
+                } else {
+                    end = uri.indexOf(next, position + 1);
+                    if (end < 0) {
+                        return false;
+                    }
+                }
+
+                if (end == position || !isSingleSegment(uri, position, end)) {
+                    return false;
+                }
+
+                if (offsets != null) {
+                    offsets[2 * i] = position;
+                    offsets[2 * i + 1] = end;
+                }
+                position = end + next.length();
+            }
+
+            return position == uri.length();
+        }
+
+        private static boolean isSingleSegment(String uri, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (uri.charAt(i) == '/') {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Returns the index of the variable with the given name, or -1 if the template has no such variable.
+         */
+        int indexOf(Object name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        String[] getNames() {
+            return names;
+        }
+
+        @Override
+        public String extractPath(String path) {
+            if (names.length == 0) {
+                return path;
+            }
+
+            // The servlet path is the literal text before the first variable, like a trailing wildcard.
+            String extract = literals[0];
+            if (extract.endsWith("/")) {
+                extract = extract.substring(0, extract.length() - 1);
+            }
+
+            return extract;
+        }
+
+        @Override
+        public UriPatternType getPatternType() {
+            return UriPatternType.TEMPLATE;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * The result of warming up the request scope at startup, see
+ * {@link DaggerServletContextListener#warmUpRequestScope()}.
+ * <p/>
+ * The time of each type is the time of its first lookup, including loading its classes and adapters, and linking its
+ * bindings in the warm up graph. Types resolved as a dependency of an earlier type are faster, since their classes
+ * are already loaded and their bindings already linked in that graph.
+ *
+ * @author John Leacox
+ */
+public final class WarmUpReport {
+    static final WarmUpReport EMPTY = new WarmUpReport(ImmutableMap.<Class<?>, Long>of(),
+            ImmutableMap.<Class<?>, RuntimeException>of());
+
+    private final Map<Class<?>, Long> nanos;
+    private final Map<Class<?>, RuntimeException> failures;
+
+    WarmUpReport(Map<Class<?>, Long> nanos, Map<Class<?>, RuntimeException> failures) {
+        this.nanos = ImmutableMap.copyOf(nanos);
+        this.failures = ImmutableMap.copyOf(failures);
+    }
+
+    /**
+     * Returns the time in nanoseconds taken to resolve each warmed up type, in the order they were resolved. Types
+     * that failed to resolve are included.
+     */
+    public Map<Class<?>, Long> getNanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns the time in nanoseconds taken to resolve the given type, or -1 if it was not warmed up.
+     */
+    public long getNanos(Class<?> type) {
+        Long typeNanos = nanos.get(type);
+        return typeNanos == null ? -1 : typeNanos;
+    }
+
+    /**
+     * Returns the total time in nanoseconds taken to resolve every warmed up type.
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (Long typeNanos : nanos.values()) {
+            total += typeNanos;
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the types that could not be resolved outside of an HTTP request, with the exception thrown for each.
+     * These are usually types that need the request itself, such as its headers.
+     */
+    public Map<Class<?>, RuntimeException> getFailures() {
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "WarmUpReport[types=" + nanos.size() + ", failures=" + failures.size() + ", totalNanos="
+                + getTotalNanos() + "]";
+    }
+}
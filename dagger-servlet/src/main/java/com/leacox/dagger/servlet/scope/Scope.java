@@ -22,9 +22,9 @@ import dagger.ObjectGraph;
  * @author John Leacox
  */
 public interface Scope {
-    public <T> T scope(Class<T> type, ObjectGraph baseGraph, Object[] scopedModules);
+    public <T> T scope(Class<T> type, ObjectGraph baseGraph, ScopedGraphFactory scopedGraphFactory);
 
-    public <T> T scopeInstance(T value, ObjectGraph baseGraph, Object[] scopedModules);
+    public <T> T scopeInstance(T value, ObjectGraph baseGraph, ScopedGraphFactory scopedGraphFactory);
 
     String toString();
 }
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet.scope;
+
+import com.google.common.collect.ImmutableSet;
+import dagger.Module;
+import dagger.ObjectGraph;
+import dagger.internal.FailoverLoader;
+import dagger.internal.ModuleAdapter;
+import dagger.internal.Modules;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates the child object graphs for a scope.
+ * <p/>
+ * The scoped modules, and every module they include, are resolved to their module adapters and instantiated once when
+ * the factory is created. Creating a graph for a new scope instance then only has to build that scope's bindings,
+ * instead of also loading adapters, walking includes and instantiating modules each time.
+ * <p/>
+ * Modules given as classes are instantiated once and shared by every graph this factory creates, the same as modules
+ * given as instances.
+ *
+ * @author John Leacox
+ */
+public final class ScopedGraphFactory {
+    private final Object[] loadedModules;
+    private final Set<Class<?>> injectableTypes;
+
+    private ScopedGraphFactory(Object[] loadedModules, Set<Class<?>> injectableTypes) {
+        this.loadedModules = loadedModules;
+        this.injectableTypes = injectableTypes;
+    }
+
+    /**
+     * Creates a factory for the given scoped modules. Each module may be either a module class or a module instance.
+     */
+    public static ScopedGraphFactory create(Object... modules) {
+        Map<ModuleAdapter<?>, Object> loaded = Modules.loadModules(new FailoverLoader(), modules);
+
+        ImmutableSet.Builder<Class<?>> injectableTypes = ImmutableSet.builder();
+        for (ModuleAdapter<?> moduleAdapter : loaded.keySet()) {
+            Module module = moduleAdapter.moduleClass.getAnnotation(Module.class);
+            if (module != null) {
+                injectableTypes.add(module.injects());
+            }
+        }
+
+        return new ScopedGraphFactory(loaded.values().toArray(), injectableTypes.build());
+    }
+
+    /**
+     * Creates a new scoped graph as an extension of the given unscoped graph.
+     */
+    public ObjectGraph newGraph(ObjectGraph unscopedGraph) {
+        return unscopedGraph.plus(loadedModules);
+    }
+
+    /**
+     * Returns true if the type is listed in the {@code injects} of one of the scoped modules, or of a module they
+     * include directly or transitively.
+     */
+    public boolean isInjectable(Class<?> type) {
+        return injectableTypes.contains(type);
+    }
+
+    /**
+     * Returns the types listed in the {@code injects} of the scoped modules and of every module they include.
+     */
+    public Set<Class<?>> getInjectableTypes() {
+        return injectableTypes;
+    }
+}
@@ -20,11 +20,18 @@ import com.google.common.collect.Maps;
 import com.leacox.dagger.servlet.DaggerFilter;
 import com.leacox.dagger.servlet.RequestScoped;
 import com.leacox.dagger.servlet.ServletScopes;
+import com.leacox.dagger.servlet.SessionScoped;
 import com.leacox.dagger.servlet.scope.Scope;
+import com.leacox.dagger.servlet.scope.ScopedGraphFactory;
 
+import javax.inject.Provider;
 import javax.servlet.http.HttpServletRequest;
 import java.lang.annotation.Annotation;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * An ObjectGraph with request and session scoping. This class should not be used directly.
@@ -36,22 +43,61 @@ import java.util.Map;
  */
 public class ScopingObjectGraph extends ObjectGraph {
     private final ObjectGraph objectGraph;
-    private final Map<Class<? extends Annotation>, Object[]> scopedModules;
+    private final Map<Class<? extends Annotation>, ScopedGraphFactory> scopedGraphFactories;
 
     private final Scope requestScope = ServletScopes.REQUEST;
+    private final Scope sessionScope = ServletScopes.SESSION;
 
-    ScopingObjectGraph(ObjectGraph objectGraph, Map<Class<? extends Annotation>, Object[]> scopedModules) {
+    ScopingObjectGraph(ObjectGraph objectGraph,
+                       Map<Class<? extends Annotation>, ScopedGraphFactory> scopedGraphFactories) {
         this.objectGraph = objectGraph;
-        this.scopedModules = scopedModules;
+        this.scopedGraphFactories = scopedGraphFactories;
     }
 
     public static ScopingObjectGraph create(ObjectGraph objectGraph) {
-        return new ScopingObjectGraph(objectGraph, Maps.<Class<? extends Annotation>, Object[]>newHashMap());
+        return new ScopingObjectGraph(objectGraph,
+                Maps.<Class<? extends Annotation>, ScopedGraphFactory>newHashMap());
     }
 
+    /**
+     * Adds the modules for the given scope. The modules are loaded once here so that entering the scope later only
+     * has to create the scoped bindings.
+     */
     public ScopingObjectGraph addScopedModules(Class<? extends Annotation> scope, Object... modules) {
-        scopedModules.put(scope, modules);
-        return new ScopingObjectGraph(objectGraph, scopedModules);
+        scopedGraphFactories.put(scope, ScopedGraphFactory.create(modules));
+        return new ScopingObjectGraph(objectGraph, scopedGraphFactories);
+    }
+
+    /**
+     * Returns the types that are injectable in the given scope, or an empty set if no modules were added for it.
+     */
+    public Set<Class<?>> getScopedTypes(Class<? extends Annotation> scope) {
+        ScopedGraphFactory scopedGraphFactory = scopedGraphFactories.get(scope);
+        return scopedGraphFactory == null ? Collections.<Class<?>>emptySet() : scopedGraphFactory.getInjectableTypes();
+    }
+
+    /**
+     * Returns a provider that resolves the given scoped type straight from the store of its scope, without the checks
+     * {@link #get(Class)} makes on every lookup to decide whether and how the type is scoped. The provider may only be
+     * used while the scope is in progress.
+     *
+     * @throws IllegalArgumentException if the scope is not {@link RequestScoped} or {@link SessionScoped}, or the type
+     * is not injectable in the given scope
+     */
+    public <T> Provider<T> getScopedProvider(Class<? extends Annotation> scope, final Class<T> type) {
+        checkArgument(RequestScoped.class.equals(scope) || SessionScoped.class.equals(scope),
+                "%s is not a servlet scope", scope.getName());
+        final ScopedGraphFactory scopedGraphFactory = scopedGraphFactories.get(scope);
+        checkArgument(scopedGraphFactory != null && scopedGraphFactory.isInjectable(type),
+                "%s is not injectable in scope %s", type.getName(), scope.getName());
+        final Scope typeScope = RequestScoped.class.equals(scope) ? requestScope : sessionScope;
+
+        return new Provider<T>() {
+            @Override
+            public T get() {
+                return typeScope.scope(type, objectGraph, scopedGraphFactory);
+            }
+        };
     }
 
     @Override
@@ -61,8 +107,10 @@ public class ScopingObjectGraph extends ObjectGraph {
             return objectGraph.get(type);
         }
 
-        if (isRequestScoped(type)) {
-            return requestScope.scope(type, objectGraph, scopedModules.get(RequestScoped.class));
+        if (isScoped(RequestScoped.class, type)) {
+            return requestScope.scope(type, objectGraph, scopedGraphFactories.get(RequestScoped.class));
+        } else if (isScoped(SessionScoped.class, type)) {
+            return sessionScope.scope(type, objectGraph, scopedGraphFactories.get(SessionScoped.class));
         } else {
             return objectGraph.get(type);
         }
@@ -75,8 +123,12 @@ public class ScopingObjectGraph extends ObjectGraph {
             return objectGraph.inject(instance);
         }
 
-        if (isRequestScoped(instance.getClass())) {
-            return requestScope.scopeInstance(instance, objectGraph, scopedModules.get(RequestScoped.class));
+        if (isScoped(RequestScoped.class, instance.getClass())) {
+            return requestScope.scopeInstance(instance, objectGraph,
+                    scopedGraphFactories.get(RequestScoped.class));
+        } else if (isScoped(SessionScoped.class, instance.getClass())) {
+            return sessionScope.scopeInstance(instance, objectGraph,
+                    scopedGraphFactories.get(SessionScoped.class));
         } else {
             return objectGraph.inject(instance);
         }
@@ -84,15 +136,15 @@ public class ScopingObjectGraph extends ObjectGraph {
 
     @Override
     public ObjectGraph plus(Object... modules) {
-        return new ScopingObjectGraph(objectGraph.plus(modules), scopedModules);
+        return new ScopingObjectGraph(objectGraph.plus(modules), scopedGraphFactories);
     }
 
     @Override
     public void validate() {
         objectGraph.validate();
 
-        for (Object[] modules : scopedModules.values()) {
-            objectGraph.plus(modules).validate();
+        for (ScopedGraphFactory scopedGraphFactory : scopedGraphFactories.values()) {
+            scopedGraphFactory.newGraph(objectGraph).validate();
         }
     }
 
@@ -105,31 +157,8 @@ public class ScopingObjectGraph extends ObjectGraph {
         objectGraph.injectStatics();
     }
 
-    private <T> boolean isRequestScoped(Class<T> type) {
-        Object[] requestScopedModules = scopedModules.get(RequestScoped.class);
-        for (Object requestScopedModule : requestScopedModules) {
-            Module module;
-            if (requestScopedModule instanceof Class<?>) {
-                module = ((Class<?>) requestScopedModule).getAnnotation(Module.class);
-            } else {
-                module = requestScopedModule.getClass().getAnnotation(Module.class);
-            }
-
-            if (arrayContains(module.injects(), type)) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    private static <T> boolean arrayContains(final T[] array, final T value) {
-        for (final T element : array) {
-            if (element == value || (value != null && value.equals(element))) {
-                return true;
-            }
-        }
-
-        return false;
+    private boolean isScoped(Class<? extends Annotation> scope, Class<?> type) {
+        ScopedGraphFactory scopedGraphFactory = scopedGraphFactories.get(scope);
+        return scopedGraphFactory != null && scopedGraphFactory.isInjectable(type);
     }
 }
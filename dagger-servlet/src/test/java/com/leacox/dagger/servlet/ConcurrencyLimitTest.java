@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.easymock.Capture;
+import org.testng.annotations.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link ConcurrencyLimit} and the limited dispatch of a {@link ServletDefinition}.
+ *
+ * @author John Leacox
+ */
+public class ConcurrencyLimitTest {
+    private static final long NO_LOAD_NANOS = 1000000;
+
+    @Test
+    public void testFixedLimitRejectsRequestsOverTheLimit() {
+        ConcurrencyLimit limit = ConcurrencyLimit.fixed(2);
+
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertEquals(limit.getInFlight(), 2);
+        assertEquals(limit.getRejections(), 1);
+
+        assertFalse(limit.release(NO_LOAD_NANOS));
+        assertTrue(limit.tryAcquire());
+        assertEquals(limit.getLimit(), 2);
+    }
+
+    @Test
+    public void testVegasLimitIsRaisedWhileRequestsDoNotQueue() {
+        ConcurrencyLimit limit = ConcurrencyLimit.vegas(10, 100);
+        acquire(limit, 10);
+
+        assertTrue(limit.release(NO_LOAD_NANOS));
+
+        assertEquals(limit.getLimit(), 16);
+    }
+
+    @Test
+    public void testVegasLimitIsNotRaisedWhileMostlyUnused() {
+        ConcurrencyLimit limit = ConcurrencyLimit.vegas(10, 100);
+        acquire(limit, 1);
+
+        assertFalse(limit.release(NO_LOAD_NANOS));
+
+        assertEquals(limit.getLimit(), 10);
+    }
+
+    @Test
+    public void testVegasLimitIsLoweredWhenLatencyShowsQueueing() {
+        ConcurrencyLimit limit = ConcurrencyLimit.vegas(10, 100);
+        acquire(limit, 10);
+        limit.release(NO_LOAD_NANOS);
+
+        // Ten times the latency without queueing means most of the 16 requests are queueing.
+        assertTrue(limit.release(10 * NO_LOAD_NANOS));
+
+        assertEquals(limit.getLimit(), 15);
+    }
+
+    @Test
+    public void testVegasLimitIsNotRaisedOverTheMaximum() {
+        ConcurrencyLimit limit = ConcurrencyLimit.vegas(10, 12);
+        acquire(limit, 10);
+
+        assertTrue(limit.release(NO_LOAD_NANOS));
+
+        assertEquals(limit.getLimit(), 12);
+    }
+
+    @Test
+    public void testRequestsOverTheLimitAreRejectedWithServiceUnavailable() throws Exception {
+        ConcurrencyLimit limit = ConcurrencyLimit.fixed(1);
+        CountingServlet servlet = new CountingServlet();
+        HistogramPipelineMetrics metrics = new HistogramPipelineMetrics();
+        ServletDefinition servletDefinition = servletDefinition(servlet, limit, metrics);
+
+        HttpServletResponse response = createMock(HttpServletResponse.class);
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        replay(response);
+
+        // Occupy the only permit, as a request in progress would.
+        assertTrue(limit.tryAcquire());
+        servletDefinition.doServiceLimited(request(), response);
+
+        verify(response);
+        assertEquals(servlet.services.get(), 0);
+        assertEquals(metrics.getServletRejections("/limited/*"), 1);
+        assertEquals(metrics.getConcurrencyLimits().get("/limited/*"), Integer.valueOf(1));
+        assertEquals(limit.getRejections(), 1);
+    }
+
+    @Test
+    public void testRequestsUnderTheLimitAreServicedAndReleased() throws Exception {
+        ConcurrencyLimit limit = ConcurrencyLimit.fixed(1);
+        CountingServlet servlet = new CountingServlet();
+        ServletDefinition servletDefinition = servletDefinition(servlet, limit, PipelineMetrics.NONE);
+        HttpServletResponse response = createMock(HttpServletResponse.class);
+        replay(response);
+
+        servletDefinition.doServiceLimited(request(), response);
+        servletDefinition.doServiceLimited(request(), response);
+
+        assertEquals(servlet.services.get(), 2);
+        assertEquals(limit.getInFlight(), 0);
+        assertEquals(limit.getRejections(), 0);
+    }
+
+    @Test
+    public void testAsyncRequestsAreReleasedWhenTheyComplete() throws Exception {
+        ConcurrencyLimit limit = ConcurrencyLimit.fixed(1);
+        ServletDefinition servletDefinition = servletDefinition(new CountingServlet(), limit, PipelineMetrics.NONE);
+        HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        HttpServletResponse response = createMock(HttpServletResponse.class);
+        AsyncContext asyncContext = createMock(AsyncContext.class);
+        Capture<AsyncListener> listener = new Capture<AsyncListener>();
+        expect(request.isAsyncStarted()).andReturn(true);
+        expect(request.getAsyncContext()).andReturn(asyncContext);
+        asyncContext.addListener(capture(listener));
+        replay(request, response, asyncContext);
+
+        servletDefinition.doServiceLimited(request, response);
+
+        assertEquals(limit.getInFlight(), 1);
+        listener.getValue().onTimeout(new AsyncEvent(asyncContext));
+        listener.getValue().onComplete(new AsyncEvent(asyncContext));
+        assertEquals(limit.getInFlight(), 0);
+        verify(request, asyncContext);
+    }
+
+    @Test
+    public void testForwardsAndIncludesAreNotLimited() throws Exception {
+        ConcurrencyLimit limit = ConcurrencyLimit.fixed(1);
+        CountingServlet servlet = new CountingServlet();
+        ServletDefinition servletDefinition = servletDefinition(servlet, limit, PipelineMetrics.NONE);
+        HttpServletResponse response = createMock(HttpServletResponse.class);
+        replay(response);
+
+        // The including request holds the only permit.
+        assertTrue(limit.tryAcquire());
+        servletDefinition.doService(request(), response);
+
+        assertEquals(servlet.services.get(), 1);
+        assertEquals(limit.getInFlight(), 1);
+        assertEquals(limit.getRejections(), 0);
+    }
+
+    private static void acquire(ConcurrencyLimit limit, int requests) {
+        for (int i = 0; i < requests; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+    }
+
+    private static ServletDefinition servletDefinition(HttpServlet servlet, ConcurrencyLimit limit,
+                                                       PipelineMetrics metrics) throws Exception {
+        ServletDefinition servletDefinition = new ServletDefinition("/limited/*", HttpServlet.class,
+                UriPatternType.get(UriPatternType.SERVLET, "/limited/*"), ImmutableMap.<String, String>of(), servlet,
+                limit);
+        servletDefinition.setMetrics(metrics);
+        servletDefinition.init(null, null, Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()));
+
+        return servletDefinition;
+    }
+
+    private static HttpServletRequest request() {
+        HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        replay(request);
+        return request;
+    }
+
+    private static class CountingServlet extends HttpServlet {
+        final AtomicInteger services = new AtomicInteger();
+
+        @Override
+        public void service(ServletRequest request, ServletResponse response) {
+            services.incrementAndGet();
+        }
+    }
+}
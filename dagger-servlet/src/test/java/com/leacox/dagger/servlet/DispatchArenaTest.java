@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.List;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+/**
+ * Tests for the reuse of dispatch objects through a {@link DispatchArena}.
+ *
+ * @author John Leacox
+ */
+public class DispatchArenaTest {
+    @AfterMethod
+    public final void tearDown() {
+        DaggerFilter.reset();
+    }
+
+    @Test
+    public void testDispatchObjectsAreReusedAcrossRequests() throws Exception {
+        RecordingServlet servlet = new RecordingServlet();
+        DaggerFilter filter = createFilter(servlet, true);
+
+        filter.doFilter(request("/context/first/info", false), null, createMock(FilterChain.class));
+        filter.doFilter(request("/context/second/info", false), null, createMock(FilterChain.class));
+
+        assertSame(servlet.requests.get(1), servlet.requests.get(0));
+        assertEquals(servlet.pathInfos, Lists.newArrayList("/first/info", "/second/info"));
+    }
+
+    @Test
+    public void testReusedWrappersDoNotKeepTheLastRequest() throws Exception {
+        RecordingServlet servlet = new RecordingServlet();
+        DaggerFilter filter = createFilter(servlet, true);
+        HttpServletRequest request = request("/context/first", false);
+
+        filter.doFilter(request, null, createMock(FilterChain.class));
+
+        assertNotSame(((ServletRequestWrapper) servlet.requests.get(0)).getRequest(), servlet.wrappedRequests.get(0));
+        assertNotSame(servlet.wrappedRequests.get(0).getRequest(), request);
+    }
+
+    @Test
+    public void testDispatchObjectsAreNotReusedByDefault() throws Exception {
+        RecordingServlet servlet = new RecordingServlet();
+        DaggerFilter filter = createFilter(servlet, false);
+
+        filter.doFilter(request("/context/first", false), null, createMock(FilterChain.class));
+        filter.doFilter(request("/context/second", false), null, createMock(FilterChain.class));
+
+        assertNotSame(servlet.requests.get(1), servlet.requests.get(0));
+    }
+
+    @Test
+    public void testDispatchObjectsOfAsyncRequestsAreNotReused() throws Exception {
+        RecordingServlet servlet = new RecordingServlet();
+        DaggerFilter filter = createFilter(servlet, true);
+
+        filter.doFilter(request("/context/async", true), null, createMock(FilterChain.class));
+        filter.doFilter(request("/context/second", false), null, createMock(FilterChain.class));
+        filter.doFilter(request("/context/third", false), null, createMock(FilterChain.class));
+
+        assertNotSame(servlet.requests.get(1), servlet.requests.get(0));
+        assertSame(servlet.requests.get(2), servlet.requests.get(1));
+        assertEquals(servlet.requests.get(0).getPathInfo(), "/async");
+    }
+
+    @Test
+    public void testArenaIsOnlyAcquiredOncePerThread() {
+        DispatchArena arena = DispatchArena.acquire();
+        assertNotNull(arena);
+        try {
+            assertSame(DispatchArena.current(), arena);
+            assertNull(DispatchArena.acquire());
+        } finally {
+            arena.release(request("/context/path", false));
+        }
+
+        assertNull(DispatchArena.current());
+    }
+
+    private static DaggerFilter createFilter(HttpServlet servlet, boolean reuseDispatchObjects)
+            throws ServletException {
+        String pattern = "/*";
+        ServletDefinition servletDefinition = new ServletDefinition(pattern, HttpServlet.class,
+                UriPatternType.get(UriPatternType.SERVLET, pattern), ImmutableMap.<String, String>of(), servlet);
+        PipelineOptions pipelineOptions = new PipelineOptions(false, reuseDispatchObjects);
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(new ServletDefinition[]{servletDefinition}, pipelineOptions), null,
+                new FilterDefinition[0], pipelineOptions);
+        pipeline.initPipeline(null);
+
+        return new DaggerFilter(pipeline);
+    }
+
+    private static HttpServletRequest request(String requestUri, boolean asyncStarted) {
+        HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        expect(request.getRequestURI()).andReturn(requestUri).anyTimes();
+        expect(request.getContextPath()).andReturn("/context").anyTimes();
+        expect(request.getServletPath()).andReturn("").anyTimes();
+        expect(request.isAsyncStarted()).andReturn(asyncStarted).anyTimes();
+        replay(request);
+        return request;
+    }
+
+    private static class RecordingServlet extends HttpServlet {
+        final List<HttpServletRequest> requests = Lists.newArrayList();
+        final List<String> pathInfos = Lists.newArrayList();
+        final List<ServletRequestWrapper> wrappedRequests = Lists.newArrayList();
+
+        @Override
+        public void service(ServletRequest servletRequest, ServletResponse servletResponse)
+                throws ServletException, IOException {
+            HttpServletRequest request = (HttpServletRequest) servletRequest;
+            requests.add(request);
+            wrappedRequests.add((ServletRequestWrapper) ((ServletRequestWrapper) request).getRequest());
+            pathInfos.add(request.getPathInfo());
+        }
+    }
+}
@@ -24,12 +24,15 @@ import org.testng.annotations.Test;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.servlet.DispatcherType;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import java.util.HashMap;
 
 import static org.easymock.EasyMock.createMock;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 /**
  * Sanity checks the EDSL and resultant definitions.
@@ -98,6 +101,9 @@ public class EdslTest {
                 filterRegex("/person/[0-9]*").through(new DummyFilterImpl(),
                         new HashMap<String, String>());
 
+                filter("/*").forDispatcherTypes(DispatcherType.FORWARD, DispatcherType.INCLUDE)
+                        .through(DummyFilterImpl.class);
+
                 serve("/1/*").with(DummyServlet.class);
                 serve("/3/*").with(new DummyServlet());
                 serve("/4/*").with(DummyServlet.class, new HashMap<String, String>());
@@ -119,7 +125,10 @@ public class EdslTest {
         ObjectGraph objectGraph = contextListener.getObjectGraph();
         objectGraph.inject(this);
 
-        assertEquals(8, filterDefinitions.length);
+        assertEquals(9, filterDefinitions.length);
+        assertTrue(filterDefinitions[0].appliesToAllDispatcherTypes());
+        assertTrue(filterDefinitions[8].appliesTo(DispatcherType.INCLUDE));
+        assertFalse(filterDefinitions[8].appliesTo(DispatcherType.REQUEST));
         assertEquals(7, servletDefinitions.length);
     }
 }
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link LatencyHistogram}.
+ *
+ * @author John Leacox
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void testSmallValuesAreExact() {
+        for (long value = 0; value < LatencyHistogram.SUB_BUCKETS; value++) {
+            assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value)), value);
+        }
+    }
+
+    @Test
+    public void testBucketsBoundValuesWithinPrecision() {
+        long[] values = {32, 33, 100, 1000, 123456, 987654321, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(upperBound >= value, value + " > " + upperBound);
+            assertTrue(upperBound - value <= value / (LatencyHistogram.SUB_BUCKETS / 2), value + " ~ " + upperBound);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(histogram.getCount(), 100);
+        assertEquals(histogram.getMeanNanos(), 50500.0);
+        assertEquals(histogram.getMaxNanos(), 100000);
+        assertEquals(histogram.getValueAtPercentile(100.0), 100000);
+        assertWithinPrecision(histogram.getValueAtPercentile(50.0), 50000);
+        assertWithinPrecision(histogram.getValueAtPercentile(99.0), 99000);
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMeanNanos(), 0.0);
+        assertEquals(histogram.getValueAtPercentile(99.0), 0);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int recordsPerThread = 10000;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                final long value = (t + 1) * 100;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+
+                        for (int i = 0; i < recordsPerThread; i++) {
+                            histogram.record(value);
+                        }
+                    }
+                });
+            }
+
+            start.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(histogram.getCount(), threads * recordsPerThread);
+        assertEquals(histogram.getMaxNanos(), threads * 100);
+    }
+
+    private static void assertWithinPrecision(long actual, long expected) {
+        assertTrue(actual >= expected && actual - expected <= expected / (LatencyHistogram.SUB_BUCKETS / 2),
+                actual + " is not close to " + expected);
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import java.util.EnumSet;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for the filter matching in {@link ManagedFilterPipeline}.
+ *
+ * @author John Leacox
+ */
+public class ManagedFilterPipelineTest {
+    private static FilterDefinition filterDefinition(String pattern) {
+        return new FilterDefinition(pattern, Filter.class, UriPatternType.get(UriPatternType.SERVLET, pattern),
+                ImmutableMap.<String, String>of(), null);
+    }
+
+    private static HttpServletRequest request(String requestUri) {
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        expect(request.getRequestURI()).andReturn(requestUri).anyTimes();
+        expect(request.getContextPath()).andReturn("/context").anyTimes();
+        replay(request);
+        return request;
+    }
+
+    private static FilterDefinition filterDefinition(String pattern, DispatcherType dispatcherType,
+                                                     DispatcherType... moreTypes) {
+        return new FilterDefinition(pattern, Filter.class, UriPatternType.get(UriPatternType.SERVLET, pattern),
+                ImmutableMap.<String, String>of(), null, EnumSet.of(dispatcherType, moreTypes));
+    }
+
+    private static HttpServletRequest request(String requestUri, DispatcherType dispatcherType) {
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        expect(request.getRequestURI()).andReturn(requestUri).anyTimes();
+        expect(request.getContextPath()).andReturn("/context").anyTimes();
+        expect(request.getDispatcherType()).andReturn(dispatcherType).anyTimes();
+        expect(request.getAttribute(RequestDispatcher.INCLUDE_REQUEST_URI)).andReturn(null).anyTimes();
+        replay(request);
+        return request;
+    }
+
+    private static HttpServletRequest includeRequest(String requestUri, String includeRequestUri) {
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        expect(request.getRequestURI()).andReturn(requestUri).anyTimes();
+        expect(request.getContextPath()).andReturn("/context").anyTimes();
+        expect(request.getDispatcherType()).andReturn(DispatcherType.INCLUDE).anyTimes();
+        expect(request.getAttribute(RequestDispatcher.INCLUDE_REQUEST_URI)).andReturn(includeRequestUri).anyTimes();
+        expect(request.getAttribute(RequestDispatcher.INCLUDE_CONTEXT_PATH)).andReturn("/context").anyTimes();
+        replay(request);
+        return request;
+    }
+
+    @Test
+    public void testMatchFiltersKeepsOnlyMatchingFiltersInOrder() {
+        FilterDefinition all = filterDefinition("/*");
+        FilterDefinition html = filterDefinition("*.html");
+        FilterDefinition admin = filterDefinition("/admin/*");
+        FilterDefinition jsp = filterDefinition("*.jsp");
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(new ServletDefinition[0]), null,
+                new FilterDefinition[]{all, html, admin, jsp});
+
+        FilterDefinition[] matched = pipeline.matchFilters(request("/context/admin/index.html"));
+
+        assertEquals(matched, new FilterDefinition[]{all, html, admin});
+    }
+
+    @Test
+    public void testMatchFiltersCachesChainsByPath() {
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(new ServletDefinition[0]), null,
+                new FilterDefinition[]{filterDefinition("/*"), filterDefinition("*.html")});
+
+        FilterDefinition[] first = pipeline.matchFilters(request("/context/index.html"));
+
+        assertSame(pipeline.matchFilters(request("/context/index.html")), first);
+        assertNotSame(pipeline.matchFilters(request("/context/index.jsp")), first);
+    }
+
+    @Test
+    public void testMatchFiltersKeepsOnlyFiltersForTheDispatcherType() {
+        FilterDefinition all = filterDefinition("/*");
+        FilterDefinition auth = filterDefinition("/*", DispatcherType.REQUEST);
+        FilterDefinition error = filterDefinition("/*", DispatcherType.ERROR);
+        FilterDefinition included = filterDefinition("*.html", DispatcherType.FORWARD, DispatcherType.INCLUDE);
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(new ServletDefinition[0]), null,
+                new FilterDefinition[]{all, auth, error, included});
+
+        assertEquals(pipeline.matchFilters(request("/context/index.html", DispatcherType.REQUEST)),
+                new FilterDefinition[]{all, auth});
+        assertEquals(pipeline.matchFilters(request("/context/index.html", DispatcherType.FORWARD)),
+                new FilterDefinition[]{all, included});
+        assertEquals(pipeline.matchFilters(request("/context/index.html", DispatcherType.INCLUDE)),
+                new FilterDefinition[]{all, included});
+        assertEquals(pipeline.matchFilters(request("/context/index.html", DispatcherType.ERROR)),
+                new FilterDefinition[]{all, error});
+        assertEquals(pipeline.matchFilters(request("/context/index.html", DispatcherType.ASYNC)),
+                new FilterDefinition[]{all});
+    }
+
+    @Test
+    public void testMatchFiltersMatchesIncludesAgainstTheIncludedPath() {
+        FilterDefinition all = filterDefinition("/*");
+        FilterDefinition fragments = filterDefinition("/fragments/*", DispatcherType.INCLUDE);
+        FilterDefinition pages = filterDefinition("*.html", DispatcherType.INCLUDE);
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(new ServletDefinition[0]), null,
+                new FilterDefinition[]{all, fragments, pages});
+
+        // The request URI of an include is the URI of the including page.
+        assertEquals(pipeline.matchFilters(includeRequest("/context/index.html", "/context/fragments/header.jsp")),
+                new FilterDefinition[]{all, fragments});
+    }
+
+    @Test
+    public void testHasServletForOnlyPathsOfManagedServlets() {
+        ServletDefinition reports = new ServletDefinition("/reports/*", HttpServlet.class,
+                UriPatternType.get(UriPatternType.SERVLET, "/reports/*"), ImmutableMap.<String, String>of(), null);
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(new ServletDefinition[]{reports}), null,
+                new FilterDefinition[]{filterDefinition("/*")});
+
+        assertTrue(pipeline.hasServletFor(request("/context/reports/daily")));
+        assertFalse(pipeline.hasServletFor(request("/context/static/site.css")));
+        assertFalse(new DefaultFilterPipeline().hasServletFor(request("/context/reports/daily")));
+    }
+}
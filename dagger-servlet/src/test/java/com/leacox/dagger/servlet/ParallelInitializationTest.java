@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests for initializing a {@link ManagedFilterPipeline} in parallel.
+ *
+ * @author John Leacox
+ */
+public class ParallelInitializationTest {
+    private static final PipelineOptions PARALLEL = new PipelineOptions(false, false, PipelineMetrics.NONE, true);
+
+    @Test
+    public void testEachInstanceIsInitializedOnceOnThePool() throws Exception {
+        CountingFilter filter = new CountingFilter();
+        CountingServlet servlet = new CountingServlet();
+        ManagedFilterPipeline pipeline = createPipeline(
+                new FilterDefinition[]{filterDefinition("/*", filter), filterDefinition("/other/*", filter)},
+                new ServletDefinition[]{servletDefinition("/a/*", servlet), servletDefinition("/b/*", servlet)});
+
+        pipeline.initPipeline(null);
+
+        assertEquals(filter.inits.get(), 1);
+        assertEquals(servlet.inits.get(), 1);
+        assertTrue(filter.initThread.startsWith("dagger-servlet-init-"), filter.initThread);
+        assertTrue(servlet.initThread.startsWith("dagger-servlet-init-"), servlet.initThread);
+    }
+
+    @Test
+    public void testInstancesAreInitializedConcurrently() throws Exception {
+        // Each servlet waits for the other to start initializing, which only completes if both run at once.
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        AwaitingServlet first = new AwaitingServlet(bothStarted);
+        AwaitingServlet second = new AwaitingServlet(bothStarted);
+        ManagedFilterPipeline pipeline = createPipeline(new FilterDefinition[0],
+                new ServletDefinition[]{servletDefinition("/a/*", first), servletDefinition("/b/*", second)});
+
+        pipeline.initPipeline(null);
+
+        assertTrue(first.sawOther);
+        assertTrue(second.sawOther);
+    }
+
+    @Test
+    public void testInitFailureIsRethrown() throws Exception {
+        final ServletException failure = new ServletException("init failed");
+        HttpServlet failing = new HttpServlet() {
+            @Override
+            public void init(ServletConfig config) throws ServletException {
+                throw failure;
+            }
+        };
+        ManagedFilterPipeline pipeline = createPipeline(new FilterDefinition[]{filterDefinition("/*",
+                new CountingFilter())}, new ServletDefinition[]{servletDefinition("/a/*", failing)});
+
+        try {
+            pipeline.initPipeline(null);
+            fail("Expected the servlet init failure");
+        } catch (ServletException e) {
+            assertSame(e, failure);
+        }
+    }
+
+    private static ManagedFilterPipeline createPipeline(FilterDefinition[] filterDefinitions,
+                                                        ServletDefinition[] servletDefinitions) {
+        return new ManagedFilterPipeline(null, new ManagedServletPipeline(servletDefinitions, PARALLEL), null,
+                filterDefinitions, PARALLEL);
+    }
+
+    private static FilterDefinition filterDefinition(String pattern, Filter filter) {
+        return new FilterDefinition(pattern, Filter.class, UriPatternType.get(UriPatternType.SERVLET, pattern),
+                ImmutableMap.<String, String>of(), filter);
+    }
+
+    private static ServletDefinition servletDefinition(String pattern, HttpServlet servlet) {
+        return new ServletDefinition(pattern, HttpServlet.class, UriPatternType.get(UriPatternType.SERVLET, pattern),
+                ImmutableMap.<String, String>of(), servlet);
+    }
+
+    private static class CountingFilter implements Filter {
+        final AtomicInteger inits = new AtomicInteger();
+        volatile String initThread;
+
+        @Override
+        public void init(FilterConfig filterConfig) {
+            inits.incrementAndGet();
+            initThread = Thread.currentThread().getName();
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) {
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    private static class CountingServlet extends HttpServlet {
+        final AtomicInteger inits = new AtomicInteger();
+        volatile String initThread;
+
+        @Override
+        public void init(ServletConfig config) {
+            inits.incrementAndGet();
+            initThread = Thread.currentThread().getName();
+        }
+    }
+
+    private static class AwaitingServlet extends HttpServlet {
+        private final CountDownLatch bothStarted;
+        volatile boolean sawOther;
+
+        AwaitingServlet(CountDownLatch bothStarted) {
+            this.bothStarted = bothStarted;
+        }
+
+        @Override
+        public void init(ServletConfig config) throws ServletException {
+            bothStarted.countDown();
+            try {
+                sawOther = bothStarted.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+        }
+    }
+}
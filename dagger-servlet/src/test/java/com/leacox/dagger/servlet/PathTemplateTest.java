@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.easymock.IAnswer;
+import org.testng.annotations.Test;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static com.leacox.dagger.servlet.UriPatternType.TemplateUriPatternMatcher;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests for {@link UriPatternType#TEMPLATE} patterns and the {@link PathParams} binding.
+ *
+ * @author John Leacox
+ */
+public class PathTemplateTest {
+    private static TemplateUriPatternMatcher template(String template) {
+        return (TemplateUriPatternMatcher) UriPatternType.get(UriPatternType.TEMPLATE, template);
+    }
+
+    @Test
+    public void testTemplateMatchesWholeSegments() {
+        TemplateUriPatternMatcher matcher = template("/users/{id}/orders/{orderId}");
+
+        assertTrue(matcher.matches("/users/42/orders/7"));
+        assertFalse(matcher.matches("/users/42/orders/"));
+        assertFalse(matcher.matches("/users/42/orders"));
+        assertFalse(matcher.matches("/users//orders/7"));
+        assertFalse(matcher.matches("/users/4/2/orders/7"));
+        assertFalse(matcher.matches("/users/42/orders/7/items"));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void testTemplateCapturesOffsets() {
+        TemplateUriPatternMatcher matcher = template("/files/{name}.{extension}");
+        int[] offsets = new int[4];
+
+        assertTrue(matcher.capture("/files/report.tar.gz", offsets));
+        assertEquals(offsets, new int[]{7, 13, 14, 20});
+        assertFalse(matcher.capture("/files/report", offsets));
+    }
+
+    @Test
+    public void testTemplateWithoutVariablesIsLiteral() {
+        TemplateUriPatternMatcher matcher = template("/status");
+
+        assertTrue(matcher.matches("/status"));
+        assertFalse(matcher.matches("/status/"));
+        assertEquals(matcher.extractPath("/status"), "/status");
+        assertEquals(template("/users/{id}").extractPath("/users/42"), "/users");
+    }
+
+    @Test
+    public void testInvalidTemplatesAreRejected() {
+        for (String invalid : new String[]{"/users/{id", "/users/{}", "/users/id}", "/{a}{b}", "/{a}/{a}"}) {
+            try {
+                template(invalid);
+                fail("Expected " + invalid + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testRouterMatchesTemplatesInOrder() {
+        UriPatternRouter router = UriPatternRouter.compile(new UriPatternMatcher[]{
+                template("/users/{id}"),
+                UriPatternType.get(UriPatternType.SERVLET, "/users/*"),
+                template("/users/{id}/orders/{orderId}")});
+
+        assertEquals(router.firstMatch("/users/42"), 0);
+        assertEquals(router.firstMatch("/users/42/orders/7"), 1);
+    }
+
+    @Test
+    public void testPathParametersAreReadLazily() {
+        PathParameters pathParameters = new PathParameters(template("/users/{id}/orders/{orderId}"),
+                "/users/42/orders/7");
+
+        assertEquals(pathParameters.get("orderId"), "7");
+        assertEquals(pathParameters.get("id"), "42");
+        assertNull(pathParameters.get("other"));
+        assertEquals(pathParameters, ImmutableMap.of("id", "42", "orderId", "7"));
+
+        assertTrue(new PathParameters(template("/users/{id}"), "/other").isEmpty());
+    }
+
+    @Test
+    public void testPathParamsBindingDuringService() throws Exception {
+        final Map<String, String> seen = Maps.newHashMap();
+        final List<Object> recorded = Lists.newArrayList();
+        final HttpServlet servlet = new HttpServlet() {
+            @Override
+            public void service(ServletRequest request, ServletResponse response) {
+                // Only the template and the path are recorded, the map is created when it is injected.
+                recorded.add(request.getAttribute(PathParameters.TEMPLATE_ATTRIBUTE));
+                recorded.add(request.getAttribute(PathParameters.PATH_ATTRIBUTE));
+                seen.putAll(new InternalServletRequestModule().providePathParameters());
+            }
+        };
+        String pattern = "/users/{id}";
+        final UriPatternMatcher template = UriPatternType.get(UriPatternType.TEMPLATE, pattern);
+        final ServletDefinition servletDefinition = new ServletDefinition(pattern, HttpServlet.class, template,
+                ImmutableMap.<String, String>of(), servlet);
+        servletDefinition.init(null, null, Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()));
+
+        final HttpServletRequest request = requestWithAttributes("/context/users/42");
+        Map<String, String> after = DaggerFilter.localContext.call(new DaggerFilter.Context(request, null),
+                new Callable<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call() throws Exception {
+                        servletDefinition.doService(request, null);
+                        return new InternalServletRequestModule().providePathParameters();
+                    }
+                });
+
+        assertEquals(recorded, Lists.<Object>newArrayList(template, "/users/42"));
+        assertEquals(seen, ImmutableMap.of("id", "42"));
+        assertTrue(after.isEmpty());
+    }
+
+    private static HttpServletRequest requestWithAttributes(String requestUri) {
+        final Map<String, Object> attributes = Maps.newHashMap();
+        HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        expect(request.getRequestURI()).andReturn(requestUri).anyTimes();
+        expect(request.getContextPath()).andReturn("/context").anyTimes();
+        expect(request.getAttribute(isA(String.class))).andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                return attributes.get((String) getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        request.setAttribute(isA(String.class), anyObject());
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                attributes.put((String) getCurrentArguments()[0], getCurrentArguments()[1]);
+                return null;
+            }
+        }).anyTimes();
+        request.removeAttribute(isA(String.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                attributes.remove((String) getCurrentArguments()[0]);
+                return null;
+            }
+        }).anyTimes();
+        replay(request);
+        return request;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import dagger.Module;
+import dagger.ObjectGraph;
+import dagger.ScopingObjectGraph;
+import org.easymock.IAnswer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.isNull;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Tests for the {@link PipelineMetrics} reported by the pipelines and the servlet scopes, recorded by a
+ * {@link HistogramPipelineMetrics}.
+ *
+ * @author John Leacox
+ */
+public class PipelineMetricsTest {
+    @AfterMethod
+    public final void tearDown() {
+        ServletScopes.setMetrics(PipelineMetrics.NONE);
+        DaggerFilter.reset();
+    }
+
+    @Test
+    public void testDispatchReportsFilterAndServletLatencies() throws Exception {
+        HistogramPipelineMetrics metrics = new HistogramPipelineMetrics();
+        ManagedFilterPipeline pipeline = createPipeline(metrics);
+
+        pipeline.dispatch(request("/context/servlet/path"), null, createMock(FilterChain.class));
+
+        assertEquals(metrics.getDispatchLatency().getCount(), 1);
+        assertEquals(metrics.getFilterLatency(PassThroughFilter.class, "/*").getCount(), 1);
+        assertNull(metrics.getFilterLatency(PassThroughFilter.class, "/other/*"));
+        assertEquals(metrics.getServletLatency("/servlet/*").getCount(), 1);
+        assertEquals(metrics.getServletMatches(), 1);
+        assertEquals(metrics.getServletMisses(), 0);
+    }
+
+    @Test
+    public void testUnmatchedRequestsAreCounted() throws Exception {
+        HistogramPipelineMetrics metrics = new HistogramPipelineMetrics();
+        ManagedFilterPipeline pipeline = createPipeline(metrics);
+        FilterChain proceedingChain = createMock(FilterChain.class);
+        proceedingChain.doFilter(isA(HttpServletRequest.class), (ServletResponse) isNull());
+        expectLastCall();
+        replay(proceedingChain);
+
+        pipeline.dispatch(request("/context/unmatched"), null, proceedingChain);
+
+        verify(proceedingChain);
+        assertEquals(metrics.getDispatchLatency().getCount(), 1);
+        assertEquals(metrics.getServletMatches(), 0);
+        assertEquals(metrics.getServletMisses(), 1);
+    }
+
+    @Test
+    public void testScopedInstanceCreationIsCounted() throws Exception {
+        HistogramPipelineMetrics metrics = new HistogramPipelineMetrics();
+        ServletScopes.setMetrics(metrics);
+        final ObjectGraph objectGraph = ScopingObjectGraph.create(ObjectGraph.create(TestAppModule.class))
+                .addScopedModules(RequestScoped.class, TestRequestModule.class);
+        Callable<RequestObject> getTwice = new Callable<RequestObject>() {
+            @Override
+            public RequestObject call() {
+                objectGraph.get(RequestObject.class);
+                return objectGraph.get(RequestObject.class);
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            DaggerFilter.localContext.call(new DaggerFilter.Context(requestWithAttributes(), null), getTwice);
+        }
+
+        assertEquals(metrics.getScopedInstancesCreated(RequestObject.class), 2);
+    }
+
+    private static ManagedFilterPipeline createPipeline(PipelineMetrics metrics) throws ServletException {
+        PipelineOptions pipelineOptions = new PipelineOptions(false, false, metrics);
+        FilterDefinition[] filterDefinitions = {
+                new FilterDefinition("/*", PassThroughFilter.class, UriPatternType.get(UriPatternType.SERVLET, "/*"),
+                        ImmutableMap.<String, String>of(), new PassThroughFilter()),
+                new FilterDefinition("/other/*", PassThroughFilter.class, UriPatternType.get(UriPatternType.SERVLET, "/other/*"),
+                        ImmutableMap.<String, String>of(), new PassThroughFilter())
+        };
+        ServletDefinition[] servletDefinitions = {
+                new ServletDefinition("/servlet/*", NoOpServlet.class,
+                        UriPatternType.get(UriPatternType.SERVLET, "/servlet/*"), ImmutableMap.<String, String>of(),
+                        new NoOpServlet())
+        };
+
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(servletDefinitions, pipelineOptions), null, filterDefinitions,
+                pipelineOptions);
+        pipeline.initPipeline(null);
+        return pipeline;
+    }
+
+    private static HttpServletRequest request(String requestUri) {
+        HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        expect(request.getRequestURI()).andReturn(requestUri).anyTimes();
+        expect(request.getContextPath()).andReturn("/context").anyTimes();
+        expect(request.getServletPath()).andReturn("").anyTimes();
+        replay(request);
+        return request;
+    }
+
+    private static HttpServletRequest requestWithAttributes() {
+        final Map<String, Object> attributes = Maps.newHashMap();
+        HttpServletRequest request = createNiceMock(HttpServletRequest.class);
+        expect(request.getAttribute(isA(String.class))).andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                return attributes.get((String) getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        request.setAttribute(isA(String.class), anyObject());
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                attributes.put((String) getCurrentArguments()[0], getCurrentArguments()[1]);
+                return null;
+            }
+        }).anyTimes();
+        replay(request);
+        return request;
+    }
+
+    static class PassThroughFilter implements Filter {
+        @Override
+        public void init(FilterConfig filterConfig) {
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    static class NoOpServlet extends HttpServlet {
+        @Override
+        public void service(ServletRequest request, ServletResponse response) {
+        }
+    }
+
+    @Module(
+            injects = {},
+            library = true
+    )
+    static class TestAppModule {
+    }
+
+    @Module(
+            injects = {
+                    RequestObject.class
+            },
+            addsTo = TestAppModule.class
+    )
+    static class TestRequestModule {
+    }
+
+    @Singleton
+    static class RequestObject {
+        @Inject
+        RequestObject() {
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import org.testng.annotations.Test;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Tests for replacing the filters and servlets of a {@link ManagedFilterPipeline}.
+ *
+ * @author John Leacox
+ */
+public class PipelineReplacementTest {
+    private static final PipelineOptions REPLACEABLE =
+            new PipelineOptions(false, false, PipelineMetrics.NONE, false, true);
+    private static final PipelineOptions REPLACEABLE_IN_PARALLEL =
+            new PipelineOptions(false, false, PipelineMetrics.NONE, true, true);
+
+    @Test
+    public void testReplacementTakesNewDispatches() throws Exception {
+        RecordingFilter shared = new RecordingFilter();
+        RecordingFilter removed = new RecordingFilter();
+        RecordingFilter added = new RecordingFilter();
+        ManagedFilterPipeline pipeline = createPipeline(filterDefinition("/*", shared), filterDefinition("/*", removed));
+        pipeline.initPipeline(null);
+        dispatch(pipeline);
+
+        pipeline.replace(new FilterDefinition[]{filterDefinition("/*", shared), filterDefinition("/*", added)},
+                new ServletDefinition[0], 10, TimeUnit.SECONDS);
+        dispatch(pipeline);
+
+        assertEquals(shared.inits.get(), 1);
+        assertEquals(shared.destroys.get(), 0);
+        assertEquals(shared.dispatches.get(), 2);
+        assertEquals(removed.destroys.get(), 1);
+        assertEquals(removed.dispatches.get(), 1);
+        assertEquals(added.inits.get(), 1);
+        assertEquals(added.dispatches.get(), 1);
+
+        pipeline.destroyPipeline();
+
+        assertEquals(shared.destroys.get(), 1);
+        assertEquals(removed.destroys.get(), 1);
+        assertEquals(added.destroys.get(), 1);
+    }
+
+    @Test
+    public void testDispatchesInProgressCompleteBeforeTheReplacedPipelineIsDestroyed() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingFilter blocking = new RecordingFilter(entered, release);
+        RecordingFilter added = new RecordingFilter();
+        final ManagedFilterPipeline pipeline = createPipeline(filterDefinition("/*", blocking));
+        pipeline.initPipeline(null);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> inProgress = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    dispatch(pipeline);
+                    return null;
+                }
+            });
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            final FilterDefinition[] replacement = {filterDefinition("/*", added)};
+            Future<?> replacing = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    pipeline.replace(replacement, new ServletDefinition[0], 10, TimeUnit.SECONDS);
+                    return null;
+                }
+            });
+
+            // New dispatches go to the replacement while the replaced pipeline waits for the dispatch in progress.
+            while (pipeline.current() == pipeline) {
+                Thread.sleep(1);
+            }
+            dispatch(pipeline);
+            assertEquals(added.dispatches.get(), 1);
+            assertFalse(replacing.isDone());
+            assertEquals(blocking.destroys.get(), 0);
+
+            release.countDown();
+            inProgress.get(10, TimeUnit.SECONDS);
+            replacing.get(10, TimeUnit.SECONDS);
+
+            assertEquals(blocking.dispatches.get(), 1);
+            assertEquals(blocking.destroys.get(), 1);
+            assertEquals(added.destroys.get(), 0);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedReplacementKeepsThePipelineInService() throws Exception {
+        final ServletException failure = new ServletException("init failed");
+        RecordingFilter kept = new RecordingFilter();
+        RecordingFilter added = new RecordingFilter();
+        RecordingFilter notInitialized = new RecordingFilter();
+        Filter failing = new RecordingFilter() {
+            @Override
+            public void init(FilterConfig filterConfig) throws ServletException {
+                throw failure;
+            }
+        };
+        ManagedFilterPipeline pipeline = createPipeline(filterDefinition("/*", kept));
+        pipeline.initPipeline(null);
+
+        try {
+            pipeline.replace(new FilterDefinition[]{filterDefinition("/*", kept), filterDefinition("/*", added),
+                    filterDefinition("/*", failing), filterDefinition("/*", notInitialized)}, new ServletDefinition[0],
+                    10, TimeUnit.SECONDS);
+            fail("Expected the filter init failure");
+        } catch (ServletException e) {
+            assertSame(e, failure);
+        }
+        dispatch(pipeline);
+
+        assertEquals(kept.dispatches.get(), 1);
+        assertEquals(kept.destroys.get(), 0);
+        assertEquals(added.destroys.get(), 1);
+        assertEquals(added.dispatches.get(), 0);
+        assertEquals(notInitialized.inits.get(), 0);
+        assertEquals(notInitialized.destroys.get(), 0);
+    }
+
+    @Test
+    public void testFailedParallelReplacementOnlyDestroysInitializedInstances() throws Exception {
+        RecordingFilter added = new RecordingFilter();
+        Filter failing = new RecordingFilter() {
+            @Override
+            public void init(FilterConfig filterConfig) throws ServletException {
+                throw new ServletException("init failed");
+            }
+        };
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(new ServletDefinition[0], REPLACEABLE_IN_PARALLEL), null,
+                new FilterDefinition[0], REPLACEABLE_IN_PARALLEL);
+        pipeline.initPipeline(null);
+
+        try {
+            pipeline.replace(new FilterDefinition[]{filterDefinition("/*", failing), filterDefinition("/*", added)},
+                    new ServletDefinition[0], 10, TimeUnit.SECONDS);
+            fail("Expected the filter init failure");
+        } catch (ServletException expected) {
+        }
+
+        // Both filters were resolved before either was initialized, but only one was initialized.
+        assertEquals(added.inits.get(), 1);
+        assertEquals(added.destroys.get(), 1);
+        assertEquals(((RecordingFilter) failing).destroys.get(), 0);
+    }
+
+    @Test
+    public void testReplacementStopsWaitingAfterTheTimeout() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingFilter blocking = new RecordingFilter(entered, release);
+        RecordingFilter added = new RecordingFilter();
+        final ManagedFilterPipeline pipeline = createPipeline(filterDefinition("/*", blocking));
+        pipeline.initPipeline(null);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> inProgress = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    dispatch(pipeline);
+                    return null;
+                }
+            });
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            assertFalse(pipeline.replace(new FilterDefinition[]{filterDefinition("/*", added)},
+                    new ServletDefinition[0], 10, TimeUnit.MILLISECONDS));
+            assertEquals(blocking.destroys.get(), 0);
+
+            // The dispatch in progress destroys the replaced pipeline once it completes.
+            release.countDown();
+            inProgress.get(10, TimeUnit.SECONDS);
+            assertEquals(blocking.destroys.get(), 1);
+            assertEquals(added.destroys.get(), 0);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testReplacementFromARequestFails() throws Exception {
+        final ManagedFilterPipeline pipeline = createPipeline(filterDefinition("/*", new RecordingFilter()));
+        pipeline.initPipeline(null);
+
+        DaggerFilter.localContext.call(new DaggerFilter.Context(createNiceMock(HttpServletRequest.class), null),
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return pipeline.replace(new FilterDefinition[0], new ServletDefinition[0], 10,
+                                TimeUnit.SECONDS);
+                    }
+                });
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testReplacementMustBeAllowed() throws Exception {
+        ManagedFilterPipeline pipeline = new ManagedFilterPipeline(null,
+                new ManagedServletPipeline(new ServletDefinition[0]), null, new FilterDefinition[0]);
+
+        pipeline.replace(new FilterDefinition[0], new ServletDefinition[0], 10, TimeUnit.SECONDS);
+    }
+
+    private static ManagedFilterPipeline createPipeline(FilterDefinition... filterDefinitions) {
+        return new ManagedFilterPipeline(null, new ManagedServletPipeline(new ServletDefinition[0], REPLACEABLE), null,
+                filterDefinitions, REPLACEABLE);
+    }
+
+    private static FilterDefinition filterDefinition(String pattern, Filter filter) {
+        return new FilterDefinition(pattern, Filter.class, UriPatternType.get(UriPatternType.SERVLET, pattern),
+                ImmutableMap.<String, String>of(), filter);
+    }
+
+    private static void dispatch(ManagedFilterPipeline pipeline) throws IOException, ServletException {
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        expect(request.getRequestURI()).andReturn("/context/index.html").anyTimes();
+        expect(request.getContextPath()).andReturn("/context").anyTimes();
+        replay(request);
+        FilterChain proceedingFilterChain = createNiceMock(FilterChain.class);
+        replay(proceedingFilterChain);
+
+        pipeline.dispatch(request, createNiceMock(HttpServletResponse.class), proceedingFilterChain);
+    }
+
+    private static class RecordingFilter implements Filter {
+        final AtomicInteger inits = new AtomicInteger();
+        final AtomicInteger dispatches = new AtomicInteger();
+        final AtomicInteger destroys = new AtomicInteger();
+        private final CountDownLatch entered;
+        private final CountDownLatch release;
+
+        RecordingFilter() {
+            this(new CountDownLatch(0), new CountDownLatch(0));
+        }
+
+        RecordingFilter(CountDownLatch entered, CountDownLatch release) {
+            this.entered = entered;
+            this.release = release;
+        }
+
+        @Override
+        public void init(FilterConfig filterConfig) throws ServletException {
+            inits.incrementAndGet();
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            dispatches.incrementAndGet();
+            entered.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+            destroys.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.ImmutableMap;
+import dagger.Module;
+import dagger.Provides;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for warming up the request scope in {@link DaggerServletContextListener}.
+ *
+ * @author John Leacox
+ */
+public class RequestScopeWarmUpTest {
+    private static final AtomicInteger created = new AtomicInteger();
+
+    @Module(
+            injects = {
+                    DaggerFilter.class
+            },
+            includes = {
+                    ServletModule.class
+            }
+    )
+    static class TestAppModule {
+    }
+
+    @Module(
+            injects = {
+                    RequestObject.class,
+                    UnavailableObject.class
+            },
+            includes = {
+                    ServletRequestModule.class
+            }
+    )
+    static class TestRequestModule {
+        @Provides
+        UnavailableObject provideUnavailableObject(HttpServletRequest request) {
+            // Needs a real request, the same as reading a header would.
+            return new UnavailableObject(request.getRequestURI());
+        }
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        created.set(0);
+    }
+
+    @Test
+    public void testWarmUpResolvesRequestScopedTypes() throws Exception {
+        TestContextListener contextListener = new TestContextListener(true,
+                Collections.<Class<?>, Object>emptyMap());
+        contextListener.contextInitialized(new ServletContextEvent(createNiceMock(ServletContext.class)));
+
+        WarmUpReport report = contextListener.getWarmUpReport();
+        assertEquals(created.get(), 1);
+        assertTrue(report.getNanos(RequestObject.class) >= 0);
+        assertTrue(report.getNanos(UnavailableObject.class) >= 0);
+        assertEquals(report.getNanos(HttpServletRequest.class), -1);
+        assertEquals(report.getFailures().keySet(), Collections.singleton(UnavailableObject.class));
+        assertTrue(report.getTotalNanos() >= report.getNanos(RequestObject.class));
+    }
+
+    @Test
+    public void testWarmUpScopeIsNotKept() throws Exception {
+        final TestContextListener contextListener = new TestContextListener(true,
+                Collections.<Class<?>, Object>emptyMap());
+        contextListener.contextInitialized(new ServletContextEvent(createNiceMock(ServletContext.class)));
+
+        RequestObject requestObject = ServletScopes.scopeRequest(new Callable<RequestObject>() {
+            @Override
+            public RequestObject call() {
+                return contextListener.getObjectGraph().get(RequestObject.class);
+            }
+        }, Collections.<Class<?>, Object>emptyMap()).call();
+
+        // The warm up instance is thrown away with its scope, so the next request creates its own.
+        assertEquals(created.get(), 2);
+        assertNull(requestObject.request);
+    }
+
+    @Test
+    public void testWarmUpUsesSeeds() throws Exception {
+        RequestObject seeded = new RequestObject(null);
+        created.set(0);
+        TestContextListener contextListener = new TestContextListener(true,
+                ImmutableMap.<Class<?>, Object>of(RequestObject.class, seeded));
+        contextListener.contextInitialized(new ServletContextEvent(createNiceMock(ServletContext.class)));
+
+        assertEquals(created.get(), 0);
+        assertEquals(contextListener.getWarmUpReport().getNanos(RequestObject.class), -1);
+    }
+
+    @Test
+    public void testNoWarmUpByDefault() throws Exception {
+        TestContextListener contextListener = new TestContextListener(false,
+                Collections.<Class<?>, Object>emptyMap());
+        contextListener.contextInitialized(new ServletContextEvent(createNiceMock(ServletContext.class)));
+
+        assertEquals(created.get(), 0);
+        assertSame(contextListener.getWarmUpReport(), WarmUpReport.EMPTY);
+    }
+
+    private static class TestContextListener extends DaggerServletContextListener {
+        private final boolean warmUp;
+        private final Map<Class<?>, Object> seeds;
+
+        TestContextListener(boolean warmUp, Map<Class<?>, Object> seeds) {
+            this.warmUp = warmUp;
+            this.seeds = seeds;
+        }
+
+        @Override
+        protected Object[] getBaseModules() {
+            return new Object[]{new TestAppModule()};
+        }
+
+        @Override
+        protected Object[] getRequestScopedModules() {
+            return new Object[]{new TestRequestModule()};
+        }
+
+        @Override
+        protected boolean warmUpRequestScope() {
+            return warmUp;
+        }
+
+        @Override
+        protected Map<Class<?>, Object> getWarmUpSeeds() {
+            return seeds;
+        }
+    }
+
+    static class RequestObject {
+        final HttpServletRequest request;
+
+        @Inject
+        RequestObject(HttpServletRequest request) {
+            this.request = request;
+            created.incrementAndGet();
+        }
+    }
+
+    static class UnavailableObject {
+        final String uri;
+
+        UnavailableObject(String uri) {
+            this.uri = uri;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.Lists;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link RequestScopedExecutors}.
+ *
+ * @author John Leacox
+ */
+public class RequestScopedExecutorsTest {
+    private static final Callable<HttpServletRequest> GET_REQUEST = new Callable<HttpServletRequest>() {
+        @Override
+        public HttpServletRequest call() throws Exception {
+            return DaggerFilter.getRequest();
+        }
+    };
+
+    @AfterMethod
+    public final void tearDown() {
+        DaggerFilter.reset();
+    }
+
+    @Test
+    public void testEachTaskOfARequestGetsItsOwnRequestScope() throws Exception {
+        // A strict mock with no expectations, the continuations must not publish anything on the original request.
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        replay(request);
+
+        final ExecutorService executor = new RequestScopedExecutors().decorate(Executors.newFixedThreadPool(2));
+        List<Future<HttpServletRequest>> futures = DaggerFilter.localContext.call(
+                new DaggerFilter.Context(request, null), new Callable<List<Future<HttpServletRequest>>>() {
+                    @Override
+                    public List<Future<HttpServletRequest>> call() throws Exception {
+                        List<Future<HttpServletRequest>> futures = Lists.newArrayList();
+                        futures.add(executor.submit(GET_REQUEST));
+                        futures.add(executor.submit(GET_REQUEST));
+                        return futures;
+                    }
+                });
+        HttpServletRequest first = futures.get(0).get();
+        HttpServletRequest second = futures.get(1).get();
+
+        assertTrue(first instanceof ContinuingHttpServletRequest);
+        assertTrue(second instanceof ContinuingHttpServletRequest);
+        assertSame(request, ((ContinuingHttpServletRequest) first).getRequest());
+        assertSame(request, ((ContinuingHttpServletRequest) second).getRequest());
+        Object firstStore = first.getAttribute(ServletScopes.REQUEST_SCOPE_STORE_KEY);
+        Object secondStore = second.getAttribute(ServletScopes.REQUEST_SCOPE_STORE_KEY);
+        assertNotNull(firstStore);
+        assertNotNull(secondStore);
+        assertNotSame(secondStore, firstStore);
+
+        executor.shutdown();
+        verify(request);
+    }
+
+    @Test
+    public void testTasksSubmittedByATaskContinueTheOriginalRequest() throws Exception {
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        replay(request);
+
+        final ExecutorService executor = new RequestScopedExecutors().decorate(Executors.newSingleThreadExecutor());
+        HttpServletRequest nested = DaggerFilter.localContext.call(
+                new DaggerFilter.Context(new ContinuingHttpServletRequest(request), null),
+                new Callable<HttpServletRequest>() {
+                    @Override
+                    public HttpServletRequest call() throws Exception {
+                        return executor.submit(GET_REQUEST).get();
+                    }
+                });
+
+        assertSame(request, ((ContinuingHttpServletRequest) nested).getRequest());
+
+        executor.shutdown();
+        verify(request);
+    }
+
+    @Test
+    public void testTasksSubmittedOutsideOfARequestRunUnscoped() throws Exception {
+        ExecutorService executor = new RequestScopedExecutors().decorate(Executors.newSingleThreadExecutor());
+
+        assertNull(executor.submit(GET_REQUEST).get());
+
+        executor.shutdown();
+    }
+}
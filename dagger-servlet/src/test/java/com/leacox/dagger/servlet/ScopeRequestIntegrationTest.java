@@ -27,6 +27,7 @@ import org.testng.annotations.Test;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 import javax.servlet.ServletException;
 import java.io.IOException;
@@ -162,6 +163,38 @@ public class ScopeRequestIntegrationTest {
         assertNull(callable.call());
     }
 
+    @Test
+    public final void testScopedProviderResolvesFromTheRequestScope() throws Exception {
+        ObjectGraph baseGraph = ObjectGraph.create(TestAppModule.class);
+        final ScopingObjectGraph scopingGraph = ScopingObjectGraph.create(baseGraph)
+                .addScopedModules(RequestScoped.class, TestRequestModule.class);
+        final Provider<SomeObject> provider = scopingGraph.getScopedProvider(RequestScoped.class, SomeObject.class);
+
+        SomeObject someObject = new SomeObject(A_VALUE);
+        SomeObject provided = ServletScopes.scopeRequest(new Callable<SomeObject>() {
+            @Override
+            public SomeObject call() {
+                assertSame(provider.get(), scopingGraph.get(SomeObject.class));
+                return provider.get();
+            }
+        }, ImmutableMap.<Class<?>, Object>of(SomeObject.class, someObject)).call();
+
+        assertSame(provided, someObject);
+        try {
+            scopingGraph.getScopedProvider(RequestScoped.class, Caller.class);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public final void testScopedProviderRejectsOtherScopes() {
+        ScopingObjectGraph scopingGraph = ScopingObjectGraph.create(ObjectGraph.create(TestAppModule.class))
+                .addScopedModules(Singleton.class, TestRequestModule.class);
+
+        scopingGraph.getScopedProvider(Singleton.class, SomeObject.class);
+    }
+
     @Singleton
     public static class SomeObject {
         private static final String INVALID = "invalid";
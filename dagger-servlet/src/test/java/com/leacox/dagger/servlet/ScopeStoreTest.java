@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+/**
+ * Tests for {@link ScopeStore}.
+ *
+ * @author John Leacox
+ */
+public class ScopeStoreTest {
+    private static final Class<?> KEY = ScopeStoreTest.class;
+
+    @Test
+    public void testPutIfAbsentKeepsFirstValue() {
+        ScopeStore scopeStore = new ScopeStore();
+        Object first = new Object();
+
+        assertNull(scopeStore.get(KEY));
+        assertSame(scopeStore.putIfAbsent(KEY, first), first);
+        assertSame(scopeStore.putIfAbsent(KEY, new Object()), first);
+        assertSame(scopeStore.get(KEY), first);
+    }
+
+    @Test
+    public void testExistingOrPutReturnsNullOnlyWhenStored() {
+        ScopeStore scopeStore = new ScopeStore();
+        Object first = new Object();
+
+        assertNull(scopeStore.existingOrPut(KEY, first));
+        assertSame(scopeStore.existingOrPut(KEY, new Object()), first);
+        assertSame(scopeStore.get(KEY), first);
+    }
+
+    @Test
+    public void testConcurrentPutIfAbsentAgreesOnOneValue() throws Exception {
+        final ScopeStore scopeStore = new ScopeStore();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        Callable<Object> putter = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                start.await();
+                return scopeStore.putIfAbsent(KEY, new Object());
+            }
+        };
+
+        Future<Object> first = executor.submit(putter);
+        Future<Object> second = executor.submit(putter);
+        Future<Object> third = executor.submit(putter);
+        start.countDown();
+
+        assertSame(first.get(), scopeStore.get(KEY));
+        assertSame(second.get(), scopeStore.get(KEY));
+        assertSame(third.get(), scopeStore.get(KEY));
+
+        executor.shutdown();
+        executor.awaitTermination(2, TimeUnit.SECONDS);
+    }
+}
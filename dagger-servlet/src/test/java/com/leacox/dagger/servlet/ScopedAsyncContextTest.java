@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.leacox.dagger.servlet.scope.OutOfScopeException;
+import org.easymock.Capture;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+/**
+ * Tests for {@link ScopedAsyncContext}.
+ *
+ * @author John Leacox
+ */
+public class ScopedAsyncContextTest {
+    @AfterMethod
+    public final void tearDown() {
+        DaggerFilter.reset();
+    }
+
+    @Test
+    public void testStartedRunnableRunsInRequestScope() throws Exception {
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        HttpServletResponse response = createMock(HttpServletResponse.class);
+        AsyncContext asyncContext = createMock(AsyncContext.class);
+        Capture<Runnable> started = new Capture<Runnable>();
+
+        expect(request.startAsync(request, response)).andReturn(asyncContext);
+        asyncContext.start(capture(started));
+        expectLastCall();
+        replay(request, response, asyncContext);
+
+        final AtomicReference<HttpServletRequest> scopedRequest = new AtomicReference<HttpServletRequest>();
+        DaggerFilter.localContext.call(new DaggerFilter.Context(request, response), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ScopedAsyncContext.startAsync().start(new Runnable() {
+                    @Override
+                    public void run() {
+                        scopedRequest.set(DaggerFilter.getRequest());
+                    }
+                });
+                return null;
+            }
+        });
+
+        runInAnotherThread(started.getValue());
+
+        assertSame(scopedRequest.get(), request);
+        verify(request, response, asyncContext);
+    }
+
+    @Test
+    public void testListenerCallbacksRunInRequestScope() throws Exception {
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        final AsyncContext asyncContext = createNiceMock(AsyncContext.class);
+        Capture<AsyncListener> added = new Capture<AsyncListener>();
+
+        asyncContext.addListener(capture(added));
+        expectLastCall();
+        replay(request, asyncContext);
+
+        final AtomicReference<HttpServletRequest> scopedRequest = new AtomicReference<HttpServletRequest>();
+        final AsyncListener listener = new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+                scopedRequest.set(DaggerFilter.getRequest());
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+        };
+        DaggerFilter.localContext.call(new DaggerFilter.Context(request, null), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ScopedAsyncContext.wrap(asyncContext).addListener(listener);
+                return null;
+            }
+        });
+
+        added.getValue().onComplete(new AsyncEvent(asyncContext));
+
+        assertSame(scopedRequest.get(), request);
+        assertNull(DaggerFilter.localContext.get());
+    }
+
+    @Test(expectedExceptions = OutOfScopeException.class)
+    public void testStartAsyncOutsideOfRequest() {
+        ScopedAsyncContext.startAsync();
+    }
+
+    private static void runInAnotherThread(final Runnable runnable) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    runnable.run();
+                    return null;
+                }
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+/**
+ * Tests for {@link ServletPathRequestWrapper}.
+ *
+ * @author John Leacox
+ */
+public class ServletPathRequestWrapperTest {
+    @Test
+    public void testCollapseSlashesReturnsSamePathWithoutRepeatedSlashes() {
+        String path = "/path/to/resource/";
+
+        assertSame(ServletPathRequestWrapper.collapseSlashes(path), path);
+    }
+
+    @Test
+    public void testCollapseSlashes() {
+        assertEquals(ServletPathRequestWrapper.collapseSlashes("//"), "/");
+        assertEquals(ServletPathRequestWrapper.collapseSlashes("/a//b///c////"), "/a/b/c/");
+        assertEquals(ServletPathRequestWrapper.collapseSlashes("a//b"), "a/b");
+        assertEquals(ServletPathRequestWrapper.collapseSlashes("////a"), "/a");
+    }
+}
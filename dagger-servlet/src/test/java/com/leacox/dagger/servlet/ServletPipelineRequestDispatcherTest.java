@@ -29,6 +29,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -42,6 +43,8 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
 
 /**
@@ -161,6 +164,52 @@ public class ServletPipelineRequestDispatcherTest {
         verify(objectGraph, requestMock, mockResponse);
     }
 
+    @Test
+    public final void testForwardStripsQueryString() throws IOException, ServletException {
+        String pattern = "blah.html";
+        final ServletDefinition servletDefinition = new ServletDefinition(pattern,
+                HttpServlet.class, UriPatternType.get(UriPatternType.SERVLET, pattern),
+                new HashMap<String, String>(), null);
+
+        ObjectGraph objectGraph = createMock(ObjectGraph.class);
+        final HttpServletRequest requestMock = createMock(HttpServletRequest.class);
+        final HttpServletResponse mockResponse = createMock(HttpServletResponse.class);
+
+        requestMock.setAttribute(REQUEST_DISPATCHER_REQUEST, true);
+        requestMock.removeAttribute(REQUEST_DISPATCHER_REQUEST);
+        expect(mockResponse.isCommitted())
+                .andReturn(false);
+        mockResponse.resetBuffer();
+
+        final List<String> paths = new ArrayList<String>();
+        final HttpServlet mockServlet = new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse httpServletResponse) {
+                paths.add(request.getRequestURI());
+            }
+        };
+
+        expect(objectGraph.get(HTTP_SERLVET_CLASS))
+                .andReturn(mockServlet);
+
+        replay(objectGraph, requestMock, mockResponse);
+
+        servletDefinition.init(null, objectGraph,
+                Sets.newSetFromMap(Maps.<HttpServlet, Boolean>newIdentityHashMap()));
+
+        ManagedServletPipeline pipeline = new ManagedServletPipeline(new ServletDefinition[]{servletDefinition});
+        RequestDispatcher dispatcher = pipeline.getRequestDispatcher(pattern + "?page=2");
+
+        assertNotNull(dispatcher);
+        assertSame(pipeline.getRequestDispatcher(pattern), dispatcher);
+        assertNull(pipeline.getRequestDispatcher("other.html?page=2"));
+        dispatcher.forward(requestMock, mockResponse);
+
+        assertEquals(paths, Collections.singletonList(pattern));
+
+        verify(objectGraph, requestMock, mockResponse);
+    }
+
     @Test
     public final void testForwardToManagedServletFailureOnCommittedBuffer()
             throws IOException, ServletException {
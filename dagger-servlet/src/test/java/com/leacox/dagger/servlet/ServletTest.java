@@ -20,6 +20,8 @@ package com.leacox.dagger.servlet;
 import dagger.Module;
 import dagger.ObjectGraph;
 import dagger.Provides;
+import org.easymock.Capture;
+import org.easymock.IAnswer;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -34,12 +36,12 @@ import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
 
 import static com.leacox.dagger.servlet.ServletScopes.NullObject;
+import static com.leacox.dagger.servlet.ServletScopes.REQUEST_SCOPE_STORE_KEY;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.createNiceMock;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
-import static org.easymock.EasyMock.expectLastCall;
-import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.testng.Assert.assertNotNull;
@@ -52,11 +54,6 @@ import static org.testng.Assert.assertTrue;
  * @author John Leacox
  */
 public class ServletTest {
-    private static final ServletScopes.DaggerKey OBJECT_GRAPH_KEY = ServletScopes.DaggerKey.get(ObjectGraph.class);
-    private static final ServletScopes.DaggerKey IN_REQUEST_KEY = ServletScopes.DaggerKey.get(InRequest.class);
-    private static final ServletScopes.DaggerKey IN_REQUEST_NULLABLE_KEY =
-            ServletScopes.DaggerKey.get(InRequestNullable.class);
-
     @Module(
             injects = {
             },
@@ -124,22 +121,15 @@ public class ServletTest {
 
         final HttpServletRequest request = createMock(HttpServletRequest.class);
 
-        String inRequestKey = IN_REQUEST_KEY.toString();
-        expect(request.getAttribute(inRequestKey)).andReturn(null);
-        request.setAttribute(eq(inRequestKey), isA(InRequest.class));
-
-        String objectGraphKey = OBJECT_GRAPH_KEY.toString();
-        expect(request.getAttribute(objectGraphKey)).andReturn(null);
-        request.setAttribute(eq(objectGraphKey), isA(ObjectGraph.class));
-        expectLastCall();
-
-        String inRequestNullKey = IN_REQUEST_NULLABLE_KEY.toString();
-        expect(request.getAttribute(inRequestNullKey)).andReturn(null);
-        request.setAttribute(eq(inRequestNullKey), eq(NullObject.INSTANCE));
-
-        expect(request.getAttribute(objectGraphKey)).andReturn(null);
-        request.setAttribute(eq(objectGraphKey), isA(ObjectGraph.class));
-        expectLastCall();
+        final Capture<ScopeStore> scopeStore = new Capture<ScopeStore>();
+        expect(request.getAttribute(REQUEST_SCOPE_STORE_KEY)).andReturn(null).times(2);
+        request.setAttribute(eq(REQUEST_SCOPE_STORE_KEY), capture(scopeStore));
+        expect(request.getAttribute(REQUEST_SCOPE_STORE_KEY)).andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                return scopeStore.getValue();
+            }
+        });
 
         final boolean[] invoked = new boolean[1];
         FilterChain filterChain = new FilterChain() {
@@ -159,6 +149,9 @@ public class ServletTest {
 
         verify(request);
         assertTrue(invoked[0]);
+        assertTrue(scopeStore.getValue().get(InRequest.class) instanceof InRequest);
+        assertSame(scopeStore.getValue().get(InRequestNullable.class), NullObject.INSTANCE);
+        assertTrue(scopeStore.getValue().get(ObjectGraph.class) instanceof ObjectGraph);
     }
 
     public void testExistingRequestObject() throws IOException, ServletException {
@@ -187,11 +180,10 @@ public class ServletTest {
         final HttpServletRequest request = createMock(HttpServletRequest.class);
 
         final InRequest inRequest = new InRequest();
-        String inRequestKey = IN_REQUEST_KEY.toString();
-        expect(request.getAttribute(inRequestKey)).andReturn(inRequest).times(2);
-
-        String inRequestNullKey = IN_REQUEST_NULLABLE_KEY.toString();
-        expect(request.getAttribute(inRequestNullKey)).andReturn(NullObject.INSTANCE).times(2);
+        ScopeStore scopeStore = new ScopeStore();
+        scopeStore.put(InRequest.class, inRequest);
+        scopeStore.put(InRequestNullable.class, NullObject.INSTANCE);
+        expect(request.getAttribute(REQUEST_SCOPE_STORE_KEY)).andReturn(scopeStore).times(4);
 
         final boolean[] invoked = new boolean[1];
         FilterChain filterChain = new FilterChain() {
@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import dagger.Module;
+import dagger.ObjectGraph;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link SessionScopeStore}. Sessions are persisted in memory, by serializing the store to a byte array and
+ * reading it back as a container would after a failover.
+ *
+ * @author John Leacox
+ */
+public class SessionScopeStoreTest {
+    @BeforeMethod
+    public void setUp() {
+        CountingObject.writes.set(0);
+        CountingObject.reads.set(0);
+    }
+
+    @Test
+    public void testOnlyDirtyObjectsAreSerializedAgain() throws Exception {
+        SessionScopeStore store = new SessionScopeStore();
+        store.putIfAbsent(CountingObject.class, new CountingObject("value"));
+
+        persist(store);
+        persist(store);
+        assertEquals(CountingObject.writes.get(), 1);
+
+        store.markDirty(CountingObject.class);
+        persist(store);
+        assertEquals(CountingObject.writes.get(), 2);
+    }
+
+    @Test
+    public void testObjectsAreRehydratedOnFirstAccess() throws Exception {
+        SessionScopeStore store = new SessionScopeStore();
+        CountingObject original = new CountingObject("value");
+        store.putIfAbsent(CountingObject.class, original);
+
+        SessionScopeStore restored = restore(persist(store));
+        assertEquals(CountingObject.reads.get(), 0);
+        assertTrue(restored.isRehydrationPending());
+        assertNull(restored.get(CountingObject.class));
+
+        rehydrate(restored);
+        CountingObject rehydrated = (CountingObject) restored.get(CountingObject.class);
+        assertEquals(rehydrated.value, "value");
+        assertFalse(restored.isRehydrationPending());
+        assertSame(restored.get(CountingObject.class), rehydrated);
+        assertEquals(CountingObject.reads.get(), 1);
+    }
+
+    @Test
+    public void testRehydratedObjectsAreNotSerializedAgainUntilDirty() throws Exception {
+        SessionScopeStore store = new SessionScopeStore();
+        store.putIfAbsent(CountingObject.class, new CountingObject("value"));
+
+        SessionScopeStore restored = restore(persist(store));
+        rehydrate(restored);
+        SessionScopeStore restoredAgain = restore(persist(restored));
+        rehydrate(restoredAgain);
+
+        assertEquals(CountingObject.writes.get(), 1);
+        assertEquals(((CountingObject) restoredAgain.get(CountingObject.class)).value, "value");
+    }
+
+    @Test
+    public void testNonSerializableObjectsAreNotPersisted() throws Exception {
+        SessionScopeStore store = new SessionScopeStore();
+        store.putIfAbsent(Object.class, new Object());
+        store.putIfAbsent(CountingObject.class, new CountingObject("value"));
+
+        SessionScopeStore restored = restore(persist(store));
+        rehydrate(restored);
+
+        assertNull(restored.get(Object.class));
+        assertNotNull(restored.get(CountingObject.class));
+    }
+
+    @Test
+    public void testObjectGraphIsNotPersisted() throws Exception {
+        SessionScopeStore store = new SessionScopeStore();
+        ObjectGraph objectGraph = ObjectGraph.create();
+        assertSame(store.putObjectGraphIfAbsent(objectGraph), objectGraph);
+        assertSame(store.putObjectGraphIfAbsent(ObjectGraph.create()), objectGraph);
+
+        SessionScopeStore restored = restore(persist(store));
+
+        assertNull(restored.getObjectGraph());
+    }
+
+    @Test
+    public void testNullObjectSurvivesPersistence() throws Exception {
+        SessionScopeStore store = new SessionScopeStore();
+        store.putIfAbsent(String.class, ServletScopes.NullObject.INSTANCE);
+
+        SessionScopeStore restored = restore(persist(store));
+        rehydrate(restored);
+
+        assertSame(restored.get(String.class), ServletScopes.NullObject.INSTANCE);
+    }
+
+    @Test
+    public void testReferencesBetweenObjectsSurvivePersistence() throws Exception {
+        SessionScopeStore store = new SessionScopeStore();
+        CountingObject countingObject = new CountingObject("value");
+        store.putIfAbsent(CountingObject.class, countingObject);
+        store.putIfAbsent(ReferencingObject.class, new ReferencingObject(countingObject));
+
+        SessionScopeStore restored = restore(persist(store));
+        rehydrate(restored);
+
+        assertSame(((ReferencingObject) restored.get(ReferencingObject.class)).countingObject,
+                restored.get(CountingObject.class));
+        assertEquals(CountingObject.reads.get(), 1);
+    }
+
+    @Test
+    public void testRehydratedObjectsAreInjectedAgain() throws Exception {
+        SessionScopeStore store = new SessionScopeStore();
+        CountingObject original = new CountingObject("value");
+        original.dependency = new Dependency();
+        store.putIfAbsent(CountingObject.class, original);
+
+        SessionScopeStore restored = restore(persist(store));
+        rehydrate(restored);
+
+        assertNotNull(((CountingObject) restored.get(CountingObject.class)).dependency);
+    }
+
+    private static void rehydrate(SessionScopeStore store) {
+        store.rehydrate(SessionScopeStoreTest.class.getClassLoader(), ObjectGraph.create(new StoreTestModule()));
+    }
+
+    static byte[] persist(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T restore(byte[] bytes) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (T) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    static class CountingObject implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        static final AtomicInteger writes = new AtomicInteger();
+        static final AtomicInteger reads = new AtomicInteger();
+
+        final String value;
+
+        @Inject
+        transient Dependency dependency;
+
+        CountingObject(String value) {
+            this.value = value;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            writes.incrementAndGet();
+            out.defaultWriteObject();
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            reads.incrementAndGet();
+            in.defaultReadObject();
+        }
+    }
+
+    static class ReferencingObject implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final CountingObject countingObject;
+
+        ReferencingObject(CountingObject countingObject) {
+            this.countingObject = countingObject;
+        }
+    }
+
+    static class Dependency {
+        @Inject
+        Dependency() {
+        }
+    }
+
+    @Module(
+            injects = {
+                    CountingObject.class,
+                    ReferencingObject.class
+            },
+            library = true
+    )
+    static class StoreTestModule {
+    }
+}
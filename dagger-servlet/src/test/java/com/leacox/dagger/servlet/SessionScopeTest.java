@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import com.google.common.collect.Maps;
+import dagger.Module;
+import dagger.ObjectGraph;
+import dagger.ScopingObjectGraph;
+import org.easymock.IAnswer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+/**
+ * Tests for the session scope.
+ *
+ * @author John Leacox
+ */
+public class SessionScopeTest {
+    @AfterMethod
+    public final void tearDown() {
+        DaggerFilter.reset();
+    }
+
+    @Test
+    public void testSessionScopedObjectsLiveAsLongAsTheSession() throws Exception {
+        ObjectGraph objectGraph = createObjectGraph();
+        Map<String, Object> firstAttributes = Maps.newHashMap();
+        Map<String, Object> secondAttributes = Maps.newHashMap();
+
+        SessionObject first = getInRequest(objectGraph, createSession("first", firstAttributes), SessionObject.class);
+        SessionObject firstAgain =
+                getInRequest(objectGraph, createSession("first", firstAttributes), SessionObject.class);
+        SessionObject second =
+                getInRequest(objectGraph, createSession("second", secondAttributes), SessionObject.class);
+
+        assertSame(firstAgain, first);
+        assertNotSame(second, first);
+        assertEquals(firstAttributes.size(), 1);
+        assertEquals(secondAttributes.size(), 1);
+    }
+
+    @Test
+    public void testSessionScopedObjectsShareOneGraphPerSession() throws Exception {
+        ObjectGraph objectGraph = createObjectGraph();
+        HttpSession session = createSession("session", Maps.<String, Object>newHashMap());
+
+        SessionObject sessionObject = getInRequest(objectGraph, session, SessionObject.class);
+        OtherSessionObject otherSessionObject = getInRequest(objectGraph, session, OtherSessionObject.class);
+
+        assertSame(otherSessionObject.sessionObject, sessionObject);
+    }
+
+    @Test
+    public void testSessionScopedObjectsSurviveFailover() throws Exception {
+        Map<String, Object> attributes = Maps.newHashMap();
+        HttpSession session = createSession("session", attributes);
+        final SerializableSessionObject sessionObject =
+                getInRequest(createObjectGraph(), session, SerializableSessionObject.class);
+        inRequest(session, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                sessionObject.visits++;
+                ServletScopes.markSessionScopedDirty(SerializableSessionObject.class);
+                return null;
+            }
+        });
+
+        // Another node restores the persisted session attributes into a new graph.
+        Map<String, Object> restoredAttributes =
+                SessionScopeStoreTest.restore(SessionScopeStoreTest.persist(Maps.newHashMap(attributes)));
+        SerializableSessionObject restored = getInRequest(createObjectGraph(),
+                createSession("session", restoredAttributes), SerializableSessionObject.class);
+
+        assertNotSame(restored, sessionObject);
+        assertEquals(restored.visits, 1);
+        assertNotNull(restored.dependency);
+    }
+
+    private static ObjectGraph createObjectGraph() {
+        return ScopingObjectGraph.create(ObjectGraph.create(TestAppModule.class))
+                .addScopedModules(RequestScoped.class, TestRequestModule.class)
+                .addScopedModules(SessionScoped.class, TestSessionModule.class);
+    }
+
+    private static HttpSession createSession(String id, final Map<String, Object> attributes) {
+        HttpSession session = createNiceMock(HttpSession.class);
+        expect(session.getId()).andReturn(id).anyTimes();
+        expect(session.getAttribute(isA(String.class))).andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                return attributes.get((String) getCurrentArguments()[0]);
+            }
+        }).anyTimes();
+        session.setAttribute(isA(String.class), anyObject());
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                attributes.put((String) getCurrentArguments()[0], getCurrentArguments()[1]);
+                return null;
+            }
+        }).anyTimes();
+        replay(session);
+
+        return session;
+    }
+
+    private static <T> T getInRequest(final ObjectGraph objectGraph, HttpSession session, final Class<T> type)
+            throws Exception {
+        return inRequest(session, new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return objectGraph.get(type);
+            }
+        });
+    }
+
+    private static <T> T inRequest(HttpSession session, Callable<T> callable) throws Exception {
+        HttpServletRequest request = createMock(HttpServletRequest.class);
+        expect(request.getSession()).andReturn(session).anyTimes();
+        replay(request);
+
+        return DaggerFilter.localContext.call(new DaggerFilter.Context(request, null), callable);
+    }
+
+    @Module(
+            injects = {},
+            library = true
+    )
+    static class TestAppModule {
+    }
+
+    @Module(
+            injects = {},
+            addsTo = TestAppModule.class,
+            library = true
+    )
+    static class TestRequestModule {
+    }
+
+    @Module(
+            injects = {
+                    SessionObject.class,
+                    OtherSessionObject.class,
+                    SerializableSessionObject.class
+            },
+            addsTo = TestAppModule.class
+    )
+    static class TestSessionModule {
+    }
+
+    @Singleton
+    static class SessionObject {
+        @Inject
+        SessionObject() {
+        }
+    }
+
+    @Singleton
+    static class OtherSessionObject {
+        final SessionObject sessionObject;
+
+        @Inject
+        OtherSessionObject(SessionObject sessionObject) {
+            this.sessionObject = sessionObject;
+        }
+    }
+
+    @Singleton
+    static class SerializableSessionObject implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int visits;
+
+        @Inject
+        transient Dependency dependency;
+
+        @Inject
+        SerializableSessionObject() {
+        }
+    }
+
+    static class Dependency {
+        @Inject
+        Dependency() {
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Tests for {@link ThreadLocalScopeCarrier}.
+ *
+ * @author John Leacox
+ */
+public class ThreadLocalScopeCarrierTest {
+    @Test
+    public void testCallBindsValueAndRestoresPrevious() throws Exception {
+        final ThreadLocalScopeCarrier<String> carrier = new ThreadLocalScopeCarrier<String>();
+
+        String result = carrier.call("outer", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                String inner = carrier.call("inner", new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return carrier.get();
+                    }
+                });
+
+                return inner + "," + carrier.get();
+            }
+        });
+
+        assertEquals(result, "inner,outer");
+        assertNull(carrier.get());
+    }
+
+    @Test
+    public void testCallRestoresPreviousWhenCallableThrows() throws Exception {
+        final ThreadLocalScopeCarrier<String> carrier = new ThreadLocalScopeCarrier<String>();
+
+        try {
+            carrier.call("value", new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    throw new IllegalStateException();
+                }
+            });
+        } catch (IllegalStateException expected) {
+        }
+
+        assertNull(carrier.get());
+    }
+
+    @Test
+    public void testRemoveUnbindsValueLeftOnThread() {
+        ThreadLocalScopeCarrier<String> carrier = new ThreadLocalScopeCarrier<String>();
+        carrier.set("value");
+
+        carrier.remove();
+
+        assertNull(carrier.get());
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * Tests for {@link UriPatternRouter}.
+ *
+ * @author John Leacox
+ */
+public class UriPatternRouterTest {
+    private static UriPatternRouter compile(UriPatternType type, String... patterns) {
+        UriPatternMatcher[] patternMatchers = new UriPatternMatcher[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            patternMatchers[i] = UriPatternType.get(type, patterns[i]);
+        }
+
+        return UriPatternRouter.compile(patternMatchers);
+    }
+
+    @Test
+    public void testServletStylePatterns() {
+        UriPatternRouter router = compile(UriPatternType.SERVLET, "/exact", "/path/*", "*.html", "/*");
+
+        assertEquals(router.firstMatch("/exact"), 0);
+        assertEquals(router.firstMatch("/path/to/page.html"), 1);
+        assertEquals(router.firstMatch("/other/page.html"), 2);
+        assertEquals(router.firstMatch("/other"), 3);
+        assertEquals(router.firstMatch(null), UriPatternRouter.NO_MATCH);
+    }
+
+    @Test
+    public void testFirstRegisteredPatternWins() {
+        UriPatternRouter router = compile(UriPatternType.SERVLET, "*.html", "/path/*", "/path/index.html");
+
+        assertEquals(router.firstMatch("/path/index.html"), 0);
+        assertEquals(router.firstMatch("/path/index.jsp"), 1);
+    }
+
+    @Test
+    public void testLongerPrefixRegisteredLaterDoesNotWin() {
+        UriPatternRouter router = compile(UriPatternType.SERVLET, "/a/*", "/a/b/*");
+
+        assertEquals(router.firstMatch("/a/b/c"), 0);
+        assertEquals(router.firstMatch("/b"), UriPatternRouter.NO_MATCH);
+    }
+
+    @Test
+    public void testRegexPatternsKeepTheirOrder() {
+        UriPatternRouter router = compile(UriPatternType.REGEX, "/a/[0-9]+", "/a/.*");
+
+        assertEquals(router.firstMatch("/a/42"), 0);
+        assertEquals(router.firstMatch("/a/b"), 1);
+        assertEquals(router.firstMatch("/b"), UriPatternRouter.NO_MATCH);
+    }
+
+    @Test
+    public void testMixedPatternTypes() {
+        UriPatternMatcher[] patternMatchers = {
+                UriPatternType.get(UriPatternType.REGEX, "/a/[0-9]+"),
+                UriPatternType.get(UriPatternType.SERVLET, "/a/*")
+        };
+        UriPatternRouter router = UriPatternRouter.compile(patternMatchers);
+
+        assertEquals(router.firstMatch("/a/42"), 0);
+        assertEquals(router.firstMatch("/a/b"), 1);
+    }
+
+    @Test
+    public void testCombinedRegexPatternsKeepTheirOrder() {
+        UriPatternMatcher[] patternMatchers = {
+                UriPatternType.get(UriPatternType.SERVLET, "/exact"),
+                UriPatternType.get(UriPatternType.REGEX, "/a/([0-9]+)"),
+                UriPatternType.get(UriPatternType.REGEX, "(?i)/a/(x|y)(z)?"),
+                UriPatternType.get(UriPatternType.REGEX, "/a/.*"),
+                UriPatternType.get(UriPatternType.SERVLET, "/*")
+        };
+        UriPatternRouter router = UriPatternRouter.compile(patternMatchers, true);
+
+        assertEquals(router.firstMatch("/exact"), 0);
+        assertEquals(router.firstMatch("/a/42"), 1);
+        assertEquals(router.firstMatch("/a/YZ"), 2);
+        assertEquals(router.firstMatch("/a/b"), 3);
+        assertEquals(router.firstMatch("/A/b"), 4);
+    }
+
+    @Test
+    public void testRegexPatternsWithBackReferencesAreNotCombined() {
+        UriPatternMatcher[] patternMatchers = {
+                UriPatternType.get(UriPatternType.REGEX, "/([a-z])/x"),
+                UriPatternType.get(UriPatternType.REGEX, "/([a-z])/\\1"),
+                UriPatternType.get(UriPatternType.REGEX, "/.*")
+        };
+        UriPatternRouter router = UriPatternRouter.compile(patternMatchers, true);
+
+        assertEquals(router.firstMatch("/a/x"), 0);
+        assertEquals(router.firstMatch("/b/b"), 1);
+        assertEquals(router.firstMatch("/b/c"), 2);
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2014 John Leacox
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.leacox.dagger.servlet.scope;
+
+import dagger.Module;
+import dagger.ObjectGraph;
+import dagger.Provides;
+import org.testng.annotations.Test;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for {@link ScopedGraphFactory}.
+ *
+ * @author John Leacox
+ */
+public class ScopedGraphFactoryTest {
+    private static final AtomicInteger includedModuleInstances = new AtomicInteger();
+
+    @Module(
+            injects = {
+                    String.class
+            }
+    )
+    static class BaseModule {
+        @Provides
+        String provideString() {
+            return "base";
+        }
+    }
+
+    @Module(
+            injects = {
+                    ScopedObject.class
+            },
+            includes = {
+                    IncludedModule.class
+            },
+            addsTo = BaseModule.class
+    )
+    static class ScopedModule {
+    }
+
+    @Module(
+            injects = {
+                    Integer.class
+            },
+            library = true,
+            addsTo = BaseModule.class
+    )
+    static class IncludedModule {
+        IncludedModule() {
+            includedModuleInstances.incrementAndGet();
+        }
+
+        @Provides
+        Integer provideInteger() {
+            return 42;
+        }
+    }
+
+    @Test
+    public void testEachGraphHasItsOwnSingletons() {
+        ObjectGraph baseGraph = ObjectGraph.create(BaseModule.class);
+        ScopedGraphFactory scopedGraphFactory = ScopedGraphFactory.create(ScopedModule.class);
+
+        ObjectGraph firstGraph = scopedGraphFactory.newGraph(baseGraph);
+        ObjectGraph secondGraph = scopedGraphFactory.newGraph(baseGraph);
+
+        ScopedObject first = firstGraph.get(ScopedObject.class);
+        assertSame(firstGraph.get(ScopedObject.class), first);
+        assertNotSame(secondGraph.get(ScopedObject.class), first);
+        assertEquals(first.value, "base42");
+    }
+
+    @Test
+    public void testIncludedModulesAreInstantiatedOnce() {
+        ObjectGraph baseGraph = ObjectGraph.create(BaseModule.class);
+        int before = includedModuleInstances.get();
+
+        ScopedGraphFactory scopedGraphFactory = ScopedGraphFactory.create(ScopedModule.class);
+        scopedGraphFactory.newGraph(baseGraph).get(ScopedObject.class);
+        scopedGraphFactory.newGraph(baseGraph).get(ScopedObject.class);
+
+        assertEquals(includedModuleInstances.get() - before, 1);
+    }
+
+    @Test
+    public void testInjectableTypesIncludeIncludedModules() {
+        ScopedGraphFactory scopedGraphFactory = ScopedGraphFactory.create(ScopedModule.class);
+
+        assertTrue(scopedGraphFactory.isInjectable(ScopedObject.class));
+        assertTrue(scopedGraphFactory.isInjectable(Integer.class));
+        assertFalse(scopedGraphFactory.isInjectable(String.class));
+    }
+
+    @Singleton
+    static class ScopedObject {
+        final String value;
+
+        @Inject
+        ScopedObject(String string, Integer integer) {
+            this.value = string + integer;
+        }
+    }
+}